@@ -0,0 +1,107 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The editing logic that does not need the javafx toolkit
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DateFieldBenchmark {
+
+	private static final String FORMAT = "yyyy/MM/dd HH:mm:ss";
+
+	private DateField field, filtered;
+
+	private Calendar calendar;
+
+	private String text;
+
+	private int monthField, dayField;
+
+	@Setup
+	public void setup() {
+		TimeZone timezone = TimeZone.getTimeZone("UTC");
+		field = new DateField(FORMAT, timezone, Locale.US);
+		field.setEpochMillis(1710498600000L);
+		text = field.getText();
+		// business days only, rolling has to skip the weekends
+		filtered = new DateField(FORMAT, timezone, Locale.US);
+		filtered.setFilter(DateFilters.not(new WeekdayFilter(timezone, Calendar.SATURDAY, Calendar.SUNDAY)));
+		filtered.setRollToAccepted(true);
+		monthField = field.getFormatModel().getFieldIndex("M");
+		dayField = field.getFormatModel().getFieldIndex("d");
+		calendar = field.getCalendar();
+	}
+
+	@Benchmark
+	public Date parse() {
+		return field.parse(text);
+	}
+
+	@Benchmark
+	public String format() {
+		return field.getText();
+	}
+
+	@Benchmark
+	public int calendarField() {
+		return field.getFormatModel().getCalendarField(dayField);
+	}
+
+	@Benchmark
+	public int fieldIndex() {
+		return field.getFormatModel().getFieldIndex("d");
+	}
+
+	/**
+	 * Typing "1" and "2" in the month field: a partial value followed by a complete one that is applied
+	 */
+	@Benchmark
+	public boolean validateKeystrokes() {
+		return field.validate(monthField, 1, 1) == DateField.PARTIAL
+			&& field.validate(monthField, 12, 2) == DateField.COMPLETE
+			&& field.apply(calendar, monthField, 12);
+	}
+
+	@Benchmark
+	public boolean rollWithFilter() {
+		return filtered.roll(calendar, dayField, 1);
+	}
+}
@@ -0,0 +1,125 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javafx.event.EventHandler;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The picker itself, the toolkit is started headless using monocle
+ * The picker and its popup calendar are never shown so they can be used from the benchmark thread
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Dglass.platform=Monocle", "-Dmonocle.platform=Headless", "-Dprism.order=sw", "-Djava.awt.headless=true" })
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DatePickerBenchmark {
+
+	private DatePicker picker;
+
+	private PopupCalendar calendar;
+
+	private EventHandler<KeyEvent> keyHandler;
+
+	private KeyEvent up, right;
+
+	/**
+	 * Two timestamps in different months
+	 */
+	private long [] months = new long [] { 1710498600000L, 1713177000000L };
+
+	private int month;
+
+	@Setup(Level.Trial)
+	public void setup() throws InterruptedException {
+		Headless.startToolkit();
+		TimeZone timezone = TimeZone.getTimeZone("UTC");
+		picker = new DatePicker("yyyy/MM/dd HH:mm:ss", timezone, Locale.US);
+		picker.filterProperty().setValue(DateFilters.not(new WeekdayFilter(timezone, Calendar.SATURDAY, Calendar.SUNDAY)));
+		// otherwise rolling stops at the friday before the first weekend and every roll after that is a no-op
+		picker.setRollToAccepted(true);
+		picker.setEpochMillis(months[0]);
+		calendar = new PopupCalendar(picker);
+		calendar.build();
+		keyHandler = picker.getKeyHandler();
+		up = new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.UP, false, false, false, false);
+		right = new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.RIGHT, false, false, false, false);
+		// select the day field
+		keyHandler.handle(right);
+		keyHandler.handle(right);
+	}
+
+	@Benchmark
+	public int fieldToCalendarField() {
+		return picker.fieldToCalendarField(2);
+	}
+
+	@Benchmark
+	public int getFieldIndex() {
+		return picker.getFieldIndex("d");
+	}
+
+	/**
+	 * Types the two digits of the day, the first keystroke is a partial value and the second one completes the field
+	 */
+	@Benchmark
+	public String typeDay() {
+		picker.replaceText(8, 10, "1");
+		picker.replaceText(9, 9, "5");
+		return picker.getText();
+	}
+
+	/**
+	 * Rolls the day with a filter that rejects the weekends, the weekend days are skipped
+	 */
+	@Benchmark
+	public long rollWithFilter() {
+		keyHandler.handle(up);
+		return picker.getEpochMillis();
+	}
+
+	/**
+	 * Moves the value to another month, this rebuilds the day grid of the bound popup calendar
+	 */
+	@Benchmark
+	public long changeMonth() {
+		month ^= 1;
+		picker.setEpochMillis(months[month]);
+		return picker.getEpochMillis();
+	}
+}
@@ -0,0 +1,265 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.scene.Scene;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+/**
+ * Creates and discards thousands of pickers the way a virtualized table would and checks that none of them are kept alive
+ * All the pickers share one long-lived observable filter, half of them use the shared popup of the window and the other half are disposed explicitly
+ * It runs as part of mvn -Pbenchmark verify and exits with 1 if a leak is found, which fails the build
+ */
+public class DatePickerLeakCheck {
+
+	private static final TimeZone TIMEZONE = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * The toolkit may still reference the last picker that had the focus until the next pulse
+	 */
+	private static final int MAX_ALIVE = 2;
+
+	/**
+	 * The calendar that is bound to the filter
+	 */
+	private static final int MAX_LISTENERS = 1;
+
+	/**
+	 * The properties of the picker that the popup and the field listen to
+	 */
+	private static final String [] PROPERTIES = new String [] { "filter", "format", "locale", "timezone", "timestamp", "epochMillis", "empty" };
+
+	private int pickerCount;
+
+	private Stage stage;
+
+	private VBox root;
+
+	private CachedDateFilter filter;
+
+	private List<WeakReference<DatePicker>> references = new ArrayList<WeakReference<DatePicker>>();
+
+	public DatePickerLeakCheck(int pickerCount) {
+		this.pickerCount = pickerCount;
+	}
+
+	public static void main(String...args) throws Exception {
+		Headless.configure();
+		int pickerCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		Headless.startToolkit();
+		boolean success;
+		try {
+			success = new DatePickerLeakCheck(pickerCount).run();
+		}
+		finally {
+			Platform.exit();
+		}
+		System.exit(success ? 0 : 1);
+	}
+
+	public boolean run() throws InterruptedException {
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				// answers are applied immediately, there is no need to wait for them
+				filter = new CachedDateFilter(new LocalAsyncDateFilter(DateFilters.not(new WeekdayFilter(TIMEZONE, Calendar.SATURDAY, Calendar.SUNDAY))), TIMEZONE, 64, new Executor() {
+					@Override
+					public void execute(Runnable command) {
+						command.run();
+					}
+				});
+				root = new VBox();
+				stage = new Stage();
+				stage.setScene(new Scene(root, 400, 300));
+				stage.show();
+			}
+		});
+		for (int i = 0; i < pickerCount; i++) {
+			final boolean shared = i % 2 == 0;
+			Headless.runAndWait(new Runnable() {
+				@Override
+				public void run() {
+					references.add(new WeakReference<DatePicker>(cycle(shared)));
+				}
+			});
+		}
+		boolean success = checkRebuilds();
+		int alive = collect();
+		success &= check(alive + " of " + pickerCount + " pickers are still reachable", alive <= MAX_ALIVE);
+		int listeners = listenerCount();
+		success &= check(listeners + " listeners on the shared filter", listeners <= MAX_LISTENERS);
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				stage.close();
+			}
+		});
+		return success;
+	}
+
+	/**
+	 * Adds a picker to the window, opens and closes its popup and removes it again, as a recycled table cell would
+	 */
+	private DatePicker cycle(boolean shared) {
+		DatePicker picker = new DatePicker("yyyy/MM/dd HH:mm", TIMEZONE, Locale.US);
+		picker.setSharedPopup(shared);
+		picker.filterProperty().setValue(filter);
+		picker.setEpochMillis(1710498600000L);
+		root.getChildren().add(picker);
+		picker.requestFocus();
+		Event.fireEvent(picker, new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.DOWN, false, false, true, false));
+		picker.getContextMenu().hide();
+		root.getChildren().remove(picker);
+		// the shared popup is released when the picker leaves the window, the others are disposed explicitly
+		if (!shared)
+			picker.dispose();
+		return picker;
+	}
+
+	/**
+	 * Changing the format rebuilds the popup, this must not add listeners to the shared filter or to the properties of the picker
+	 */
+	private boolean checkRebuilds() throws InterruptedException {
+		final boolean [] bounded = new boolean[1];
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				DatePicker picker = new DatePicker("yyyy/MM/dd", TIMEZONE, Locale.US);
+				picker.filterProperty().setValue(filter);
+				picker.setEpochMillis(1710498600000L);
+				root.getChildren().add(picker);
+				Event.fireEvent(picker, new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.DOWN, false, false, true, false));
+				int before = filter.getListenerCount();
+				int [] properties = countPropertyListeners(picker);
+				for (int i = 0; i < 1000; i++)
+					picker.formatProperty().setValue(i % 2 == 0 ? "yyyy/MM/dd HH:mm" : "yyyy/MM/dd");
+				boolean success = check(filter.getListenerCount() + " listeners on the shared filter after rebuilding, " + before + " before", filter.getListenerCount() == before);
+				int [] after = countPropertyListeners(picker);
+				for (int i = 0; i < after.length; i++)
+					success &= check(after[i] + " listeners on the " + PROPERTIES[i] + " property after rebuilding, " + properties[i] + " before", after[i] <= properties[i]);
+				bounded[0] = success;
+				picker.dispose();
+				root.getChildren().remove(picker);
+			}
+		});
+		return bounded[0];
+	}
+
+	/**
+	 * Runs the garbage collector until all the pickers are gone or it stops making progress
+	 */
+	private int collect() throws InterruptedException {
+		int alive = countAlive();
+		for (int attempt = 0; attempt < 10 && alive > 0; attempt++) {
+			System.gc();
+			Thread.sleep(100);
+			// give the toolkit a pulse to let go of its references
+			Headless.runAndWait(new Runnable() {
+				@Override
+				public void run() {
+					Platform.requestNextPulse();
+				}
+			});
+			alive = countAlive();
+		}
+		return alive;
+	}
+
+	private int countAlive() {
+		int alive = 0;
+		for (WeakReference<DatePicker> reference : references) {
+			if (reference.get() != null)
+				alive++;
+		}
+		return alive;
+	}
+
+	private int listenerCount() throws InterruptedException {
+		final int [] count = new int[1];
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				count[0] = filter.getListenerCount();
+			}
+		});
+		return count[0];
+	}
+
+	private static int [] countPropertyListeners(DatePicker picker) {
+		Object [] properties = new Object [] { picker.filterProperty(), picker.formatProperty(), picker.localeProperty(), picker.timezoneProperty(), picker.timestampProperty(), picker.epochMillisProperty(), picker.emptyProperty() };
+		int [] counts = new int[properties.length];
+		for (int i = 0; i < properties.length; i++)
+			counts[i] = countListeners(properties[i]);
+		return counts;
+	}
+
+	/**
+	 * The properties do not expose their listeners, the count is read from the expression helper that holds them
+	 */
+	private static int countListeners(Object property) {
+		try {
+			for (Class<?> type = property.getClass(); type != null; type = type.getSuperclass()) {
+				Field field;
+				try {
+					field = type.getDeclaredField("helper");
+				}
+				// declared by a superclass
+				catch (NoSuchFieldException e) {
+					continue;
+				}
+				field.setAccessible(true);
+				Object helper = field.get(property);
+				if (helper == null)
+					return 0;
+				// a helper with a single listener has no sizes
+				if (helper.getClass().getSimpleName().startsWith("Single"))
+					return 1;
+				return getInt(helper, "invalidationSize") + getInt(helper, "changeSize");
+			}
+		}
+		catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can not count the listeners of " + property, e);
+		}
+		throw new IllegalStateException("Can not find the listeners of " + property);
+	}
+
+	private static int getInt(Object object, String name) throws ReflectiveOperationException {
+		Field field = object.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		return field.getInt(object);
+	}
+
+	private static boolean check(String message, boolean success) {
+		System.out.println((success ? "ok: " : "FAILED: ") + message);
+		return success;
+	}
+}
@@ -0,0 +1,419 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javafx.application.Platform;
+import javafx.event.Event;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.Slider;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.GridPane;
+import javafx.stage.Stage;
+
+/**
+ * Drives a form full of pickers through scripted interactions on a headless toolkit and reports the latency percentiles, node counts and pulse costs
+ * Run it with: mvn -Pbenchmark test-compile exec:exec@stress -Dstress.args="<pickers> <rounds>"
+ *
+ * The latency of an interaction is the time from the moment it starts until the scene that shows the result has been laid out in the next pulse
+ * The frame cost is the time a scene spends on css and layout in a single pulse, rendering happens on a separate thread and is not included
+ */
+public class DatePickerStress {
+
+	private static final TimeZone TIMEZONE = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * A fixed value so runs can be compared
+	 */
+	private static final long START = 1710498600000L;
+
+	/**
+	 * The amount of seconds to wait for a pulse before giving up
+	 */
+	private static final long TIMEOUT = 10;
+
+	private int pickerCount, rounds;
+
+	private Stage stage;
+
+	private DatePicker [] pickers;
+
+	private Map<Scene, Probe> probes = new HashMap<Scene, Probe>();
+
+	private Map<String, Samples> latencies = new LinkedHashMap<String, Samples>();
+
+	private Map<String, Samples> frameCosts = new LinkedHashMap<String, Samples>();
+
+	/**
+	 * The interaction that is currently running, these are only accessed on the fx thread
+	 */
+	private Scene waitingFor;
+	private Samples frames;
+	private CountDownLatch done;
+	private long started, latency;
+
+	public DatePickerStress(int pickerCount, int rounds) {
+		this.pickerCount = pickerCount;
+		this.rounds = rounds;
+	}
+
+	public static void main(String...args) throws Exception {
+		Headless.configure();
+		int pickerCount = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		Headless.startToolkit();
+		try {
+			new DatePickerStress(pickerCount, rounds).run();
+		}
+		finally {
+			Platform.exit();
+		}
+	}
+
+	public void run() throws InterruptedException {
+		final long [] buildTime = new long[1];
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				buildForm();
+				buildTime[0] = System.nanoTime() - start;
+			}
+		});
+		// the form is only laid out once it is shown
+		interact("show form", new Supplier<Scene>() {
+			@Override
+			public Scene get() {
+				return stage.getScene();
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				stage.show();
+			}
+		});
+		System.out.printf("%d pickers built in %.3f ms, %d nodes in the form%n", pickerCount, buildTime[0] / 1000000d, countNodes(stage.getScene().getRoot()));
+
+		// the first time each picker opens its popup, the very first one also loads the stylesheet
+		for (DatePicker picker : pickers) {
+			open("first popup", picker);
+			close(picker);
+		}
+		for (DatePicker picker : pickers) {
+			open("reopen popup", picker);
+			close(picker);
+		}
+		System.out.printf("time to first popup: %.3f ms, %d nodes in a popup%n", latencies.get("first popup").get(0) / 1000000d, countNodes(getContent(pickers[0]).getScene().getRoot()));
+
+		for (int round = 0; round < rounds; round++) {
+			DatePicker picker = pickers[round % pickers.length];
+			open("open popup", picker);
+			dragSlider(picker);
+			holdArrowKey(picker, KeyCode.UP, 31);
+			holdArrowKey(picker, KeyCode.DOWN, 31);
+			navigateMonths(picker, 12);
+			close(picker);
+		}
+
+		report("latency", latencies);
+		report("frame cost (css and layout per scene per pulse)", frameCosts);
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				stage.close();
+			}
+		});
+	}
+
+	/**
+	 * A form with a label and a picker on each row, all the pickers have a filter like they would in a real application
+	 */
+	private void buildForm() {
+		GridPane form = new GridPane();
+		form.setHgap(10);
+		form.setVgap(5);
+		DateFilter filter = DateFilters.not(new WeekdayFilter(TIMEZONE, Calendar.SATURDAY, Calendar.SUNDAY));
+		pickers = new DatePicker[pickerCount];
+		for (int i = 0; i < pickerCount; i++) {
+			pickers[i] = new DatePicker("yyyy/MM/dd HH:mm:ss", TIMEZONE, Locale.US);
+			pickers[i].filterProperty().setValue(filter);
+			// holding an arrow key skips the weekends instead of getting stuck on the friday before one
+			pickers[i].setRollToAccepted(true);
+			pickers[i].setEpochMillis(START);
+			form.addRow(i, new Label("Date " + (i + 1) + ":"), pickers[i]);
+		}
+		ScrollPane scroll = new ScrollPane(form);
+		scroll.setFitToWidth(true);
+		stage = new Stage();
+		stage.setTitle("Stress");
+		stage.setScene(new Scene(scroll, 800, 600));
+		probe(stage.getScene());
+	}
+
+	private void open(String name, final DatePicker picker) throws InterruptedException {
+		interact(name, new Supplier<Scene>() {
+			@Override
+			public Scene get() {
+				// the popup only exists once it has been opened
+				return picker.getContextMenu().getScene();
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				picker.requestFocus();
+				Event.fireEvent(picker, new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.DOWN, false, false, true, false));
+			}
+		});
+	}
+
+	private void close(final DatePicker picker) throws InterruptedException {
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				picker.getContextMenu().hide();
+			}
+		});
+	}
+
+	/**
+	 * Drags the hour slider all the way up and back down again, one value per pulse
+	 */
+	private void dragSlider(DatePicker picker) throws InterruptedException {
+		final Slider slider = (Slider) getContent(picker).lookup(".slider");
+		setValueChanging(slider, true);
+		for (int i = 0; i <= 46; i++) {
+			final int value = i <= 23 ? i : 46 - i;
+			interact("slider drag", popupScene(picker), new Runnable() {
+				@Override
+				public void run() {
+					slider.setValue(value);
+				}
+			});
+		}
+		setValueChanging(slider, false);
+	}
+
+	private void setValueChanging(final Slider slider, final boolean changing) throws InterruptedException {
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				slider.setValueChanging(changing);
+			}
+		});
+	}
+
+	/**
+	 * Selects the day field and sends the given amount of key presses without releasing the key, like the key repeat would
+	 */
+	private void holdArrowKey(final DatePicker picker, final KeyCode code, int presses) throws InterruptedException {
+		Headless.runAndWait(new Runnable() {
+			@Override
+			public void run() {
+				// back to the year, the day is two fields further
+				for (int i = 0; i < picker.getFormatModel().getNumericFieldCount(); i++)
+					Event.fireEvent(picker, new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.LEFT, false, false, false, false));
+				for (int i = 0; i < 2; i++)
+					Event.fireEvent(picker, new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", KeyCode.RIGHT, false, false, false, false));
+			}
+		});
+		for (int i = 0; i < presses; i++) {
+			interact("hold arrow key", popupScene(picker), new Runnable() {
+				@Override
+				public void run() {
+					Event.fireEvent(picker, new KeyEvent(KeyEvent.KEY_PRESSED, KeyEvent.CHAR_UNDEFINED, "", code, false, false, false, false));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Clicks the next month button the given amount of times and then the previous month button as often
+	 * Every click lands on the nearest accepted day of the month it leads to
+	 */
+	private void navigateMonths(DatePicker picker, int months) throws InterruptedException {
+		// the buttons are on the same row as the month label
+		Node month = getContent(picker).lookup(".nabu-date-picker-month");
+		int index = month.getParent().getChildrenUnmodifiable().indexOf(month);
+		Node previous = month.getParent().getChildrenUnmodifiable().get(index - 1);
+		Node next = month.getParent().getChildrenUnmodifiable().get(index + 1);
+		for (int i = 0; i < months; i++)
+			click("next month", popupScene(picker), next);
+		for (int i = 0; i < months; i++)
+			click("previous month", popupScene(picker), previous);
+	}
+
+	private void click(String name, Supplier<Scene> scene, final Node node) throws InterruptedException {
+		interact(name, scene, new Runnable() {
+			@Override
+			public void run() {
+				Event.fireEvent(node, new MouseEvent(MouseEvent.MOUSE_CLICKED, 0, 0, 0, 0, MouseButton.PRIMARY, 1, false, false, false, false, true, false, false, false, false, true, null));
+			}
+		});
+	}
+
+	private static Supplier<Scene> popupScene(final DatePicker picker) {
+		return new Supplier<Scene>() {
+			@Override
+			public Scene get() {
+				return picker.getContextMenu().getScene();
+			}
+		};
+	}
+
+	private static Parent getContent(DatePicker picker) {
+		return (Parent) ((CustomMenuItem) picker.getContextMenu().getItems().get(0)).getContent();
+	}
+
+	/**
+	 * Runs the action on the fx thread and waits until the target scene has been laid out in the next pulse
+	 */
+	private void interact(final String name, final Supplier<Scene> target, final Runnable action) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		final Samples samples = getSamples(frameCosts, name);
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				frames = samples;
+				done = latch;
+				started = System.nanoTime();
+				action.run();
+				waitingFor = probe(target.get());
+				Platform.requestNextPulse();
+			}
+		});
+		if (!latch.await(TIMEOUT, TimeUnit.SECONDS))
+			throw new IllegalStateException("The scene was not laid out after: " + name);
+		// the latch makes the latency visible to this thread
+		getSamples(latencies, name).add(latency);
+	}
+
+	/**
+	 * Registers the pulse listeners on the scene if this was not done yet
+	 */
+	private Scene probe(Scene scene) {
+		if (!probes.containsKey(scene))
+			probes.put(scene, new Probe(scene));
+		return scene;
+	}
+
+	private class Probe {
+
+		private long layoutStarted;
+
+		public Probe(final Scene scene) {
+			scene.addPreLayoutPulseListener(new Runnable() {
+				@Override
+				public void run() {
+					layoutStarted = System.nanoTime();
+				}
+			});
+			scene.addPostLayoutPulseListener(new Runnable() {
+				@Override
+				public void run() {
+					long now = System.nanoTime();
+					if (frames != null)
+						frames.add(now - layoutStarted);
+					if (waitingFor == scene) {
+						latency = now - started;
+						waitingFor = null;
+						frames = null;
+						done.countDown();
+					}
+				}
+			});
+		}
+	}
+
+	private static Samples getSamples(Map<String, Samples> samples, String name) {
+		if (!samples.containsKey(name))
+			samples.put(name, new Samples());
+		return samples.get(name);
+	}
+
+	private static int countNodes(Node node) {
+		int count = 1;
+		if (node instanceof Parent) {
+			for (Node child : ((Parent) node).getChildrenUnmodifiable())
+				count += countNodes(child);
+		}
+		return count;
+	}
+
+	private static void report(String title, Map<String, Samples> samples) {
+		System.out.println();
+		System.out.println(title);
+		System.out.printf("%-16s %8s %10s %10s %10s %10s%n", "", "count", "p50 ms", "p90 ms", "p99 ms", "max ms");
+		for (Map.Entry<String, Samples> entry : samples.entrySet()) {
+			Samples current = entry.getValue();
+			if (current.size() > 0)
+				System.out.printf("%-16s %8d %10.3f %10.3f %10.3f %10.3f%n", entry.getKey(), current.size(), current.percentile(50) / 1000000d, current.percentile(90) / 1000000d, current.percentile(99) / 1000000d, current.percentile(100) / 1000000d);
+		}
+	}
+
+	/**
+	 * Durations in nanoseconds
+	 */
+	private static class Samples {
+
+		private long [] values = new long[64];
+
+		private int size;
+
+		public void add(long value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		public long get(int index) {
+			return values[index];
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * The nearest rank percentile
+		 */
+		public long percentile(double percentile) {
+			long [] sorted = Arrays.copyOf(values, size);
+			Arrays.sort(sorted);
+			int rank = (int) Math.ceil(percentile / 100 * size);
+			return sorted[Math.max(rank, 1) - 1];
+		}
+	}
+}
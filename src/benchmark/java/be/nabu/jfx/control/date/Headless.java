@@ -0,0 +1,82 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.concurrent.CountDownLatch;
+
+import javafx.application.Platform;
+
+/**
+ * Starts the toolkit without a display using monocle and runs code on the fx thread for the benchmark harnesses
+ */
+class Headless {
+
+	/**
+	 * Configures monocle unless the system properties explicitly say otherwise, this must happen before the toolkit starts
+	 */
+	static void configure() {
+		setDefault("glass.platform", "Monocle");
+		setDefault("monocle.platform", "Headless");
+		setDefault("prism.order", "sw");
+		setDefault("java.awt.headless", "true");
+	}
+
+	/**
+	 * Starts the toolkit and waits until it is running, it may already have been started by a previous run in the same process
+	 */
+	static void startToolkit() throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		try {
+			Platform.startup(new Runnable() {
+				@Override
+				public void run() {
+					latch.countDown();
+				}
+			});
+		}
+		// already running
+		catch (IllegalStateException e) {
+			latch.countDown();
+		}
+		latch.await();
+	}
+
+	/**
+	 * Runs the code on the fx thread and waits until it is done
+	 */
+	static void runAndWait(final Runnable runnable) throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(1);
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				}
+				finally {
+					latch.countDown();
+				}
+			}
+		});
+		latch.await();
+	}
+
+	private static void setDefault(String key, String value) {
+		if (System.getProperty(key) == null)
+			System.setProperty(key, value);
+	}
+}
@@ -0,0 +1,39 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A filter that answers asynchronously, e.g. because it has to ask a backend
+ * Use it through a {@link CachedDateFilter} which keeps the answers per month and lets the popup show the days that are still pending
+ */
+public interface AsyncDateFilter {
+	
+	/**
+	 * Resolves to a bitmask where bit i is set if the day i days after the start is accepted, at most 64 days are requested at once
+	 * The start is always midnight and the calendar belongs to the implementation, it may keep or modify it
+	 */
+	public CompletableFuture<Long> requestDays(Calendar start, int days);
+	
+	/**
+	 * Answers that were given for an older version are no longer used, change the version whenever the underlying data changes
+	 */
+	public long getVersion();
+}
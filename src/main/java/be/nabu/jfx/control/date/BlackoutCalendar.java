@@ -0,0 +1,352 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact binary calendar with one bit per day for a range of years, it can contain multiple named layers (e.g. one per region)
+ * Files are memory-mapped and shared within the process, lookups read straight from the mapping without allocating
+ * A mapped file must never be modified in place, the {@link Writer} replaces it atomically so existing mappings keep reading the old content
+ *
+ * The format (big endian) is:
+ * - the magic number and the version
+ * - the epoch day of the first day and the amount of days
+ * - the amount of layers followed by the name (length-prefixed UTF-8) and the offset of the bitmap of each layer
+ * - the bitmaps, each a sequence of longs where bit (day % 64) of long (day / 64) is set if the day is blacked out
+ */
+public class BlackoutCalendar {
+
+	private static final int MAGIC = 0x4E44434C, VERSION = 1, HEADER = 18;
+
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	private static Map<Path, BlackoutCalendar> calendars = new ConcurrentHashMap<Path, BlackoutCalendar>();
+
+	private ByteBuffer buffer;
+
+	private long firstDay;
+
+	private int days;
+
+	private List<String> layers = new ArrayList<String>();
+
+	private int [] offsets;
+
+	/**
+	 * The state of the file when it was mapped, null if the calendar was not read from a file
+	 */
+	private FileTime modified;
+
+	private long size;
+
+	/**
+	 * Opens the calendar at the given path, every path is only mapped once per process
+	 * A file that has been replaced since it was mapped is mapped again, calendars that were opened before keep the old content
+	 */
+	public static BlackoutCalendar open(Path path) throws IOException {
+		Path key = path.toAbsolutePath().normalize();
+		BlackoutCalendar calendar = calendars.get(key);
+		if (calendar == null || !calendar.isCurrent(key)) {
+			BlackoutCalendar mapped = map(key);
+			// another thread may have mapped it in the meantime, either mapping is up to date
+			calendar = calendar == null ? calendars.putIfAbsent(key, mapped) : calendars.replace(key, calendar, mapped) ? null : calendars.get(key);
+			if (calendar == null)
+				calendar = mapped;
+		}
+		return calendar;
+	}
+
+	/**
+	 * Maps the file at the given path again, even if it does not appear to have changed
+	 */
+	public static BlackoutCalendar reload(Path path) throws IOException {
+		Path key = path.toAbsolutePath().normalize();
+		BlackoutCalendar calendar = map(key);
+		calendars.put(key, calendar);
+		return calendar;
+	}
+
+	private static BlackoutCalendar map(Path path) throws IOException {
+		FileTime modified = Files.getLastModifiedTime(path);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("The blackout calendar is too large: " + path);
+			BlackoutCalendar calendar;
+			try {
+				calendar = new BlackoutCalendar(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			}
+			catch (IllegalArgumentException e) {
+				throw new IOException("Invalid blackout calendar " + path + ": " + e.getMessage(), e);
+			}
+			calendar.modified = modified;
+			calendar.size = size;
+			return calendar;
+		}
+	}
+
+	private boolean isCurrent(Path path) throws IOException {
+		return Files.getLastModifiedTime(path).equals(modified) && Files.size(path) == size;
+	}
+
+	/**
+	 * Reads a calendar from any buffer, e.g. one that was loaded from the classpath
+	 * The header is validated against the size of the buffer so a lookup can never read outside of it
+	 */
+	public BlackoutCalendar(ByteBuffer buffer) {
+		this.buffer = buffer;
+		int limit = buffer.limit();
+		if (limit < HEADER || buffer.getInt(0) != MAGIC)
+			throw new IllegalArgumentException("Not a blackout calendar");
+		if (buffer.getShort(4) != VERSION)
+			throw new IllegalArgumentException("Unsupported version of the blackout calendar: " + buffer.getShort(4));
+		firstDay = buffer.getInt(6);
+		days = buffer.getInt(10);
+		if (days < 0)
+			throw new IllegalArgumentException("Invalid amount of days: " + days);
+		int count = buffer.getInt(14);
+		// every layer takes at least 6 bytes in the header
+		if (count < 0 || count > (limit - HEADER) / 6)
+			throw new IllegalArgumentException("Invalid amount of layers: " + count);
+		long bitmap = ((days + 63L) / 64) * 8;
+		offsets = new int[count];
+		int position = HEADER;
+		for (int i = 0; i < count; i++) {
+			int length = position + 6 > limit ? -1 : buffer.getShort(position) & 0xFFFF;
+			if (length < 0 || position + 6L + length > limit)
+				throw new IllegalArgumentException("The header of layer " + i + " exceeds the calendar");
+			byte [] name = new byte[length];
+			for (int j = 0; j < name.length; j++)
+				name[j] = buffer.get(position + 2 + j);
+			layers.add(new String(name, StandardCharsets.UTF_8));
+			offsets[i] = buffer.getInt(position + 2 + length);
+			position += 6 + length;
+		}
+		for (int i = 0; i < count; i++) {
+			if (offsets[i] < position || offsets[i] + bitmap > limit)
+				throw new IllegalArgumentException("The bitmap of layer " + layers.get(i) + " exceeds the calendar");
+		}
+	}
+
+	public List<String> getLayers() {
+		return layers;
+	}
+
+	public int getLayer(String name) {
+		return layers.indexOf(name);
+	}
+
+	/**
+	 * Whether the day (days since 1970-01-01) is blacked out in the given layer, days outside of the range never are
+	 */
+	public boolean isBlackedOut(int layer, long epochDay) {
+		long index = epochDay - firstDay;
+		if (index < 0 || index >= days)
+			return false;
+		return (buffer.getLong(offsets[layer] + (int) (index >>> 6) * 8) & (1L << (index & 63))) != 0;
+	}
+
+	public long getFirstDay() {
+		return firstDay;
+	}
+
+	public int getDays() {
+		return days;
+	}
+
+	/**
+	 * A filter that rejects the days that are blacked out in any of the given layers, or in all of them if none are given
+	 */
+	public DateFilter getFilter(TimeZone timezone, String...layers) {
+		int [] indexes;
+		if (layers.length == 0) {
+			indexes = new int[this.layers.size()];
+			for (int i = 0; i < indexes.length; i++)
+				indexes[i] = i;
+		}
+		else {
+			indexes = new int[layers.length];
+			for (int i = 0; i < layers.length; i++) {
+				indexes[i] = getLayer(layers[i]);
+				if (indexes[i] < 0)
+					throw new IllegalArgumentException("Unknown layer: " + layers[i]);
+			}
+		}
+		return new BlackoutFilter(this, indexes, timezone);
+	}
+
+	private static class BlackoutFilter implements DateFilter {
+		private BlackoutCalendar calendar;
+		private int [] layers;
+		private TimeZone timezone;
+
+		public BlackoutFilter(BlackoutCalendar calendar, int [] layers, TimeZone timezone) {
+			this.calendar = calendar;
+			this.layers = layers;
+			this.timezone = timezone;
+		}
+
+		@Override
+		public boolean accept(Date date) {
+			long time = date.getTime();
+			return accept(Math.floorDiv(time + timezone.getOffset(time), DAY));
+		}
+
+		@Override
+		public long acceptDays(Calendar start, int days) {
+			if (days < 0 || days > 64)
+				throw new IllegalArgumentException("Can only check up to 64 days at once: " + days);
+			long time = start.getTimeInMillis();
+			long day = Math.floorDiv(time + timezone.getOffset(time), DAY);
+			long accepted = 0;
+			for (int i = 0; i < days; i++) {
+				if (accept(day + i))
+					accepted |= 1L << i;
+			}
+			return accepted;
+		}
+
+		private boolean accept(long epochDay) {
+			for (int layer : layers) {
+				if (calendar.isBlackedOut(layer, epochDay))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Builds a calendar file in memory
+	 */
+	public static class Writer {
+
+		private long firstDay;
+
+		private int days;
+
+		private Map<String, long[]> layers = new LinkedHashMap<String, long[]>();
+
+		/**
+		 * The calendar covers the first of january of the first year up to and including the 31st of december of the last year
+		 */
+		public Writer(int firstYear, int lastYear) {
+			if (lastYear < firstYear)
+				throw new IllegalArgumentException("The last year can not be before the first year");
+			this.firstDay = RecurrenceFilter.toEpochDay(firstYear, 1, 1);
+			this.days = (int) (RecurrenceFilter.toEpochDay(lastYear + 1, 1, 1) - firstDay);
+		}
+
+		/**
+		 * Blacks out the given day (the month is 1-based) in the given layer, the layer is created if necessary
+		 */
+		public Writer set(String layer, int year, int month, int day) {
+			long index = RecurrenceFilter.toEpochDay(year, month, day) - firstDay;
+			if (index < 0 || index >= days)
+				throw new IllegalArgumentException("The date " + year + "-" + month + "-" + day + " is outside of the range of the calendar");
+			long [] bits = layers.get(layer);
+			if (bits == null) {
+				bits = new long[(days + 63) / 64];
+				layers.put(layer, bits);
+			}
+			bits[(int) (index >>> 6)] |= 1L << (index & 63);
+			return this;
+		}
+
+		/**
+		 * Blacks out the day of the given date in the given timezone
+		 */
+		public Writer set(String layer, Date date, TimeZone timezone) {
+			Calendar calendar = Calendar.getInstance(timezone);
+			calendar.setTime(date);
+			return set(layer, calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH));
+		}
+
+		/**
+		 * Writes to a temporary file next to the target and moves it in place, a calendar that is mapped is never truncated
+		 */
+		public void write(Path path) throws IOException {
+			Path target = path.toAbsolutePath();
+			Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				try (OutputStream output = Files.newOutputStream(temporary)) {
+					write(output);
+				}
+				try {
+					Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				}
+				catch (AtomicMoveNotSupportedException e) {
+					Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+			finally {
+				Files.deleteIfExists(temporary);
+			}
+		}
+
+		public void write(OutputStream output) throws IOException {
+			DataOutputStream data = new DataOutputStream(output);
+			data.writeInt(MAGIC);
+			data.writeShort(VERSION);
+			data.writeInt((int) firstDay);
+			data.writeInt(days);
+			data.writeInt(layers.size());
+			List<byte[]> names = new ArrayList<byte[]>();
+			int header = HEADER;
+			for (String name : layers.keySet()) {
+				byte [] bytes = name.getBytes(StandardCharsets.UTF_8);
+				names.add(bytes);
+				header += 6 + bytes.length;
+			}
+			// the bitmaps are aligned on longs
+			int offset = (header + 7) & ~7;
+			int size = ((days + 63) / 64) * 8;
+			for (int i = 0; i < names.size(); i++) {
+				data.writeShort(names.get(i).length);
+				data.write(names.get(i));
+				data.writeInt(offset + i * size);
+			}
+			for (int i = header; i < offset; i++)
+				data.writeByte(0);
+			for (long [] bits : layers.values()) {
+				for (long value : bits)
+					data.writeLong(value);
+			}
+			data.flush();
+		}
+	}
+}
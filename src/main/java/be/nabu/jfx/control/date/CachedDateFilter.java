@@ -0,0 +1,281 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.WeakListener;
+
+/**
+ * Turns an asynchronous filter into a regular one by caching its answers per month
+ * The filter works with whole days in the given timezone, a day that is not known yet is rejected and reported as pending
+ * Listeners are notified whenever new answers arrive so the popup can update itself
+ *
+ * The cache is not thread-safe, it should be used from the javafx thread which is also where the answers are applied by default
+ */
+public class CachedDateFilter implements PrefetchingDateFilter, Observable {
+
+	private static final int DEFAULT_SIZE = 64;
+
+	/**
+	 * The state of a single day
+	 */
+	private static final int REJECTED = 0, ACCEPTED = 1, PENDING = 2;
+
+	private AsyncDateFilter filter;
+
+	private TimeZone timezone;
+
+	private int size;
+
+	/**
+	 * The thread on which answers are applied and listeners are notified
+	 */
+	private Executor executor;
+
+	private Map<Key, Long> months;
+
+	private Set<Key> pending = new HashSet<Key>();
+
+	/**
+	 * Incremented by every clear, answers to requests from before a clear are discarded
+	 */
+	private long generation;
+
+	private List<InvalidationListener> listeners = new ArrayList<InvalidationListener>();
+
+	/**
+	 * Reused for all the lookups
+	 */
+	private Calendar calendar;
+
+	public CachedDateFilter(AsyncDateFilter filter, TimeZone timezone) {
+		this(filter, timezone, DEFAULT_SIZE, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				Platform.runLater(command);
+			}
+		});
+	}
+
+	public CachedDateFilter(AsyncDateFilter filter, TimeZone timezone, final int size, Executor executor) {
+		this.filter = filter;
+		this.timezone = timezone;
+		this.size = size;
+		this.executor = executor;
+		this.calendar = Calendar.getInstance(timezone);
+		this.months = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	@Override
+	public boolean accept(Date date) {
+		return lookup(date.getTime(), true) == ACCEPTED;
+	}
+
+	/**
+	 * The pending days count as rejected, use {@link #pendingDays(Calendar, int)} to tell them apart
+	 */
+	@Override
+	public long acceptDays(Calendar start, int days) {
+		return query(start, days, ACCEPTED);
+	}
+
+	/**
+	 * The days in the span for which there is no answer yet, the missing months are requested
+	 */
+	public long pendingDays(Calendar start, int days) {
+		return query(start, days, PENDING);
+	}
+
+	/**
+	 * Only the cached answers are used, months that are not known yet are assumed to have accepted days
+	 * This keeps the popup from requesting whole years just to decide whether a button is enabled
+	 */
+	@Override
+	public boolean acceptAny(Calendar start, int days) {
+		Calendar day = (Calendar) start.clone();
+		for (int i = 0; i < days; i++) {
+			if (i > 0)
+				day.add(Calendar.DATE, 1);
+			if (lookup(day.getTimeInMillis(), false) != REJECTED)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Requests the month of the given date if it is not known yet
+	 */
+	@Override
+	public void prefetch(Calendar month) {
+		lookup(month.getTimeInMillis(), true);
+	}
+
+	/**
+	 * Removes all the answers, they will be requested again when needed
+	 */
+	public void clear() {
+		months.clear();
+		pending.clear();
+		generation++;
+		notifyListeners();
+	}
+
+	public AsyncDateFilter getFilter() {
+		return filter;
+	}
+
+	public TimeZone getTimezone() {
+		return timezone;
+	}
+
+	private long query(Calendar start, int days, int state) {
+		if (days < 0 || days > 64)
+			throw new IllegalArgumentException("Can only check up to 64 days at once: " + days);
+		Calendar day = (Calendar) start.clone();
+		long result = 0;
+		for (int i = 0; i < days; i++) {
+			if (i > 0)
+				day.add(Calendar.DATE, 1);
+			if (lookup(day.getTimeInMillis(), true) == state)
+				result |= 1L << i;
+		}
+		return result;
+	}
+
+	private int lookup(long timestamp, boolean request) {
+		calendar.setTimeInMillis(timestamp);
+		Key key = new Key(calendar.get(Calendar.YEAR), calendar.get(Calendar.MONTH), filter.getVersion());
+		Long accepted = months.get(key);
+		if (accepted == null) {
+			if (request)
+				request(key);
+			return PENDING;
+		}
+		return (accepted & (1L << (calendar.get(Calendar.DAY_OF_MONTH) - 1))) != 0 ? ACCEPTED : REJECTED;
+	}
+
+	private void request(final Key key) {
+		if (!pending.add(key))
+			return;
+		final long requested = generation;
+		Calendar start = Calendar.getInstance(timezone);
+		start.clear();
+		start.set(key.year, key.month, 1);
+		filter.requestDays(start, start.getActualMaximum(Calendar.DAY_OF_MONTH)).whenComplete(new BiConsumer<Long, Throwable>() {
+			@Override
+			public void accept(final Long result, final Throwable exception) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						// the cache was cleared while the request was running
+						if (requested != generation)
+							return;
+						pending.remove(key);
+						// a failed month is requested again the next time it is needed
+						if (exception == null && result != null) {
+							months.put(key, result);
+							notifyListeners();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	private void notifyListeners() {
+		purgeListeners();
+		for (InvalidationListener listener : new ArrayList<InvalidationListener>(listeners))
+			listener.invalidated(this);
+	}
+
+	/**
+	 * Drops the weak listeners of pickers that have been garbage collected
+	 */
+	private void purgeListeners() {
+		Iterator<InvalidationListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			InvalidationListener listener = iterator.next();
+			if (listener instanceof WeakListener && ((WeakListener) listener).wasGarbageCollected())
+				iterator.remove();
+		}
+	}
+
+	@Override
+	public void addListener(InvalidationListener listener) {
+		purgeListeners();
+		listeners.add(listener);
+	}
+
+	/**
+	 * The amount of live listeners
+	 */
+	int getListenerCount() {
+		purgeListeners();
+		return listeners.size();
+	}
+
+	@Override
+	public void removeListener(InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+
+	private static class Key {
+		private int year, month;
+		private long version;
+
+		public Key(int year, int month, long version) {
+			this.year = year;
+			this.month = month;
+			this.version = version;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (31 * (31 * year + month) + (version ^ (version >>> 32)));
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key))
+				return false;
+			Key other = (Key) object;
+			return year == other.year && month == other.month && version == other.version;
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Keeps track of the calendar fields of a timestamp so consecutive changes can be compared
+ * A single calendar instance is reused for all updates, it should not be modified by whoever reads it
+ */
+class CalendarFields {
+
+	private static final int [] FIELDS = new int [] { Calendar.YEAR, Calendar.MONTH, Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY, Calendar.MINUTE, Calendar.SECOND, Calendar.MILLISECOND };
+
+	/**
+	 * All the tracked fields have changed, this is also the case when going from or to an empty value
+	 */
+	public static final int ALL = (1 << Calendar.FIELD_COUNT) - 1;
+
+	private Calendar calendar;
+
+	private Locale locale;
+
+	private int [] values = new int[Calendar.FIELD_COUNT];
+
+	private boolean empty = true;
+
+	/**
+	 * Updates the fields to the given timestamp and returns a bitmask with (1 << field) set for every calendar field that has changed
+	 */
+	public int update(boolean isEmpty, long timestamp, TimeZone timezone, Locale locale) {
+		if (isEmpty) {
+			boolean wasEmpty = empty;
+			empty = true;
+			return wasEmpty ? 0 : ALL;
+		}
+		int changes = 0;
+		if (calendar == null || empty || !calendar.getTimeZone().equals(timezone) || locale != this.locale) {
+			calendar = Calendar.getInstance(timezone, locale);
+			this.locale = locale;
+			changes = ALL;
+		}
+		calendar.setTimeInMillis(timestamp);
+		for (int field : FIELDS) {
+			int value = calendar.get(field);
+			if (value != values[field]) {
+				values[field] = value;
+				changes |= 1 << field;
+			}
+		}
+		empty = false;
+		return changes;
+	}
+
+	/**
+	 * The calendar for the last update or null if it was empty
+	 */
+	public Calendar getCalendar() {
+		return empty ? null : calendar;
+	}
+
+	public void reset() {
+		empty = true;
+	}
+
+	public static boolean hasChanged(int changes, int field) {
+		return (changes & (1 << field)) != 0;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.text.ParsePosition;
+import java.util.Date;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Parses and formats large amounts of values with exactly the rules of a picker (or a {@link DateField}) with the same settings
+ * The work is split over the cores using fork/join, the filter of the field must be thread-safe
+ *
+ * The settings are read once at the start, changing the field while a batch is running has no effect on it
+ */
+public class DateBatch {
+
+	/**
+	 * The status of a single row
+	 */
+	public static final byte VALID = 0, EMPTY = 1, INVALID = 2, REJECTED = 3;
+
+	/**
+	 * Below this amount of rows the work is no longer split
+	 */
+	private static final int THRESHOLD = 2048;
+
+	public static Result parse(DateField field, String [] values) {
+		return parse(field, values, ForkJoinPool.commonPool());
+	}
+
+	public static Result parse(DateField field, String [] values, ForkJoinPool pool) {
+		Result result = new Result(values.length);
+		pool.invoke(new ParseTask(snapshot(field), values, result, 0, values.length));
+		return result;
+	}
+
+	/**
+	 * The stream is collected first, the rows of the result are in the order of the stream
+	 */
+	public static Result parse(DateField field, Stream<String> values) {
+		return parse(field, values.toArray(new IntFunction<String[]>() {
+			@Override
+			public String[] apply(int size) {
+				return new String[size];
+			}
+		}));
+	}
+
+	/**
+	 * Formats the values, there is no notion of an empty value here
+	 */
+	public static String [] format(DateField field, long [] values) {
+		return format(field, values, ForkJoinPool.commonPool());
+	}
+
+	public static String [] format(DateField field, long [] values, ForkJoinPool pool) {
+		String [] result = new String[values.length];
+		pool.invoke(new FormatTask(snapshot(field), values, result, 0, values.length));
+		return result;
+	}
+
+	/**
+	 * A private copy of the field so the tasks are not affected by changes to it
+	 */
+	private static DateField snapshot(DateField field) {
+		if (field.getFormatter() == null)
+			throw new IllegalArgumentException("The field has no format");
+		DateField snapshot = new DateField(field.getFormat(), field.getTimezone(), field.getLocale());
+		snapshot.setFilter(field.getFilter());
+		return snapshot;
+	}
+
+	public static class Result {
+
+		private long [] epochMillis;
+
+		private int [] errorIndexes;
+
+		private byte [] statuses;
+
+		Result(int size) {
+			this.epochMillis = new long[size];
+			this.errorIndexes = new int[size];
+			this.statuses = new byte[size];
+		}
+
+		public int size() {
+			return statuses.length;
+		}
+
+		/**
+		 * One of {@link DateBatch#VALID}, {@link DateBatch#EMPTY}, {@link DateBatch#INVALID} or {@link DateBatch#REJECTED}
+		 */
+		public byte getStatus(int row) {
+			return statuses[row];
+		}
+
+		public boolean isValid(int row) {
+			return statuses[row] == VALID;
+		}
+
+		/**
+		 * The parsed value, this is also filled in for rows that are rejected by the filter
+		 */
+		public long getEpochMillis(int row) {
+			return epochMillis[row];
+		}
+
+		/**
+		 * The position in the text where parsing failed or -1 if it did not
+		 */
+		public int getErrorIndex(int row) {
+			return errorIndexes[row];
+		}
+
+		/**
+		 * The amount of rows with the given status
+		 */
+		public int count(byte status) {
+			int count = 0;
+			for (byte current : statuses) {
+				if (current == status)
+					count++;
+			}
+			return count;
+		}
+	}
+
+	private static class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private DateField field;
+		private String [] values;
+		private Result result;
+		private int from, to;
+
+		public ParseTask(DateField field, String [] values, Result result, int from, int to) {
+			this.field = field;
+			this.values = values;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ParseTask(field, values, result, from, middle), new ParseTask(field, values, result, middle, to));
+				return;
+			}
+			// a single position is reused for all the rows of this task
+			ParsePosition position = new ParsePosition(0);
+			for (int i = from; i < to; i++) {
+				String value = values[i];
+				result.errorIndexes[i] = -1;
+				if (value == null || value.trim().isEmpty()) {
+					result.statuses[i] = EMPTY;
+					continue;
+				}
+				position.setIndex(0);
+				position.setErrorIndex(-1);
+				Date date = field.parse(value, position);
+				if (date == null) {
+					result.statuses[i] = INVALID;
+					result.errorIndexes[i] = position.getErrorIndex();
+				}
+				else {
+					result.epochMillis[i] = date.getTime();
+					result.statuses[i] = field.accept(date) ? VALID : REJECTED;
+				}
+			}
+		}
+	}
+
+	private static class FormatTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private DateField field;
+		private long [] values;
+		private String [] result;
+		private int from, to;
+
+		public FormatTask(DateField field, long [] values, String [] result, int from, int to) {
+			this.field = field;
+			this.values = values;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new FormatTask(field, values, result, from, middle), new FormatTask(field, values, result, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++)
+				result[i] = field.format(values[i]);
+		}
+	}
+}
@@ -0,0 +1,450 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.text.ParsePosition;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.function.Supplier;
+
+/**
+ * The editing logic of the date picker without any dependency on javafx
+ * It can be used on any thread, e.g. to validate imported values with exactly the same rules as the picker
+ *
+ * An instance is not thread-safe but the methods that do not touch the value (parse, format, accept, validate, roll and apply on a given calendar)
+ * can be shared by multiple threads as long as the settings are not changed
+ */
+public class DateField {
+
+	/**
+	 * The outcome of validating the digits of a single field
+	 * Unbounded fields (e.g. two digit years) can only be validated by parsing the whole text
+	 */
+	public static final int UNBOUNDED = 0, INVALID = 1, PARTIAL = 2, COMPLETE = 3;
+
+	/**
+	 * The maximum amount of values that are tried when searching for an accepted value
+	 */
+	private static final int MAX_ROLLS = 1000;
+
+	private String format;
+
+	private Locale locale;
+
+	private TimeZone timezone;
+
+	private DateFilter filter;
+
+	private FormatModel model;
+
+	private DateFormatter formatter;
+
+	private long epochMillis;
+
+	private boolean empty = true;
+
+	/**
+	 * If set, rolling skips the values that are rejected by the filter
+	 */
+	private boolean rollToAccepted = false;
+
+	/**
+	 * Resolves where the work of this field is recorded at the time it is done, the global metrics are used if there is nothing to resolve
+	 */
+	private Supplier<DatePickerMetrics> metrics;
+
+	public DateField(String format) {
+		this(format, null, null);
+	}
+
+	public DateField(String format, TimeZone timezone, Locale locale) {
+		this.timezone = timezone == null ? TimeZone.getDefault() : timezone;
+		this.locale = locale == null ? Locale.getDefault() : locale;
+		setFormat(format);
+	}
+
+	private void updateFormatter() {
+		// formatters are shared between all fields with the same settings
+		formatter = format == null ? null : DateFormatter.getInstance(format, locale, timezone);
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public void setFormat(String format) {
+		this.format = format;
+		// the model is parsed once per pattern and shared
+		this.model = format == null ? null : FormatModel.getInstance(format);
+		updateFormatter();
+	}
+
+	/**
+	 * Changes all the settings at once, the formatter is only looked up once
+	 */
+	public void configure(String format, TimeZone timezone, Locale locale) {
+		this.format = format;
+		this.model = format == null ? null : FormatModel.getInstance(format);
+		this.timezone = timezone;
+		this.locale = locale;
+		updateFormatter();
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	public void setLocale(Locale locale) {
+		this.locale = locale;
+		updateFormatter();
+	}
+
+	public TimeZone getTimezone() {
+		return timezone;
+	}
+
+	public void setTimezone(TimeZone timezone) {
+		this.timezone = timezone;
+		updateFormatter();
+	}
+
+	public DateFilter getFilter() {
+		return filter;
+	}
+
+	public void setFilter(DateFilter filter) {
+		this.filter = filter;
+	}
+
+	public boolean getRollToAccepted() {
+		return rollToAccepted;
+	}
+
+	public void setRollToAccepted(boolean rollToAccepted) {
+		this.rollToAccepted = rollToAccepted;
+	}
+
+	void setMetrics(Supplier<DatePickerMetrics> metrics) {
+		this.metrics = metrics;
+	}
+
+	private DatePickerMetrics getRecordingMetrics() {
+		return metrics == null ? DatePickerMetrics.getGlobal() : metrics.get();
+	}
+
+	public FormatModel getFormatModel() {
+		return model;
+	}
+
+	public DateFormatter getFormatter() {
+		return formatter;
+	}
+
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * The epoch millis of the current value, this is meaningless if {@link #isEmpty()}
+	 */
+	public long getEpochMillis() {
+		return epochMillis;
+	}
+
+	/**
+	 * Sets the value as is, the filter only applies to values that are edited
+	 */
+	public void setEpochMillis(long epochMillis) {
+		this.epochMillis = epochMillis;
+		this.empty = false;
+	}
+
+	public void clear() {
+		this.empty = true;
+	}
+
+	/**
+	 * A new calendar with the settings of this field
+	 */
+	public Calendar newCalendar() {
+		return Calendar.getInstance(timezone, locale);
+	}
+
+	/**
+	 * A new calendar set to the current value or null if there is none
+	 */
+	public Calendar getCalendar() {
+		if (empty)
+			return null;
+		Calendar calendar = newCalendar();
+		calendar.setTimeInMillis(epochMillis);
+		return calendar;
+	}
+
+	public boolean accept(Date date) {
+		if (filter == null)
+			return true;
+		DatePickerMetrics metrics = getRecordingMetrics();
+		long start = metrics.start();
+		boolean accepted = filter.accept(date);
+		metrics.stop(DatePickerMetrics.FILTER_CALLS, start);
+		return accepted;
+	}
+
+	/**
+	 * Parses the whole text according to the format, returns null if it is not valid
+	 * The filter is not checked
+	 */
+	public Date parse(String text) {
+		return text == null ? null : parse(text, new ParsePosition(0));
+	}
+
+	/**
+	 * Parses the whole text starting at the given position, the error index of the position is set if it is not valid
+	 * Text that is not consumed by the format is treated as an error at the position where it starts
+	 */
+	public Date parse(String text, ParsePosition position) {
+		if (formatter == null)
+			return null;
+		getRecordingMetrics().increment(DatePickerMetrics.PARSES);
+		Date date = formatter.parse(text, position);
+		// trailing garbage is not allowed
+		if (position.getErrorIndex() < 0 && position.getIndex() != text.length())
+			position.setErrorIndex(position.getIndex());
+		return position.getErrorIndex() >= 0 ? null : date;
+	}
+
+	public String format(long epochMillis) {
+		if (formatter == null)
+			return null;
+		getRecordingMetrics().increment(DatePickerMetrics.FORMATS);
+		return formatter.format(epochMillis);
+	}
+
+	/**
+	 * The formatted value, an empty string if there is no value
+	 */
+	public String getText() {
+		return empty || formatter == null ? "" : format(epochMillis);
+	}
+
+	/**
+	 * Updates the value from the given text, an empty text clears the value
+	 * Returns false if the text is not valid or the date is rejected by the filter, the value is left unchanged in that case
+	 */
+	public boolean setText(String text) {
+		if (text == null || text.trim().isEmpty()) {
+			clear();
+			return true;
+		}
+		Date date = parse(text);
+		if (date == null || !accept(date))
+			return false;
+		setEpochMillis(date.getTime());
+		return true;
+	}
+
+	/**
+	 * The amount of fields in the format (both numeric and textual)
+	 */
+	public int getFieldCount() {
+		return model == null ? 0 : model.getFieldCount();
+	}
+
+	/**
+	 * The next field that can be edited by typing digits, -1 if there is none
+	 */
+	public int getNextField(int field) {
+		for (int i = field + 1; i < getFieldCount(); i++) {
+			if (model.getField(i).isNumeric())
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * The previous field that can be edited by typing digits, -1 if there is none
+	 */
+	public int getPreviousField(int field) {
+		for (int i = Math.min(field, getFieldCount()) - 1; i >= 0; i--) {
+			if (model.getField(i).isNumeric())
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Validates the digits typed so far for the given field
+	 * A partial value is one that may still become valid by typing more digits
+	 */
+	public int validate(int field, int value, int digits) {
+		FormatModel.Token token = model == null ? null : model.getField(field);
+		if (token == null || token.getMaximum() < 0)
+			return UNBOUNDED;
+		if (digits > token.getMaxDigits() || value > token.getMaximum())
+			return INVALID;
+		// the user can still type more digits
+		if (digits < token.getMaxDigits() && value * 10 <= token.getMaximum())
+			return PARTIAL;
+		return value < token.getMinimum() ? INVALID : COMPLETE;
+	}
+
+	/**
+	 * Sets the field of the calendar to the value as it appears in the formatted text
+	 * Returns false if the result is not a valid date (e.g. the 31st of a month with 30 days), the filter is not checked
+	 */
+	public boolean apply(Calendar calendar, int field, int value) {
+		FormatModel.Token token = model == null ? null : model.getField(field);
+		if (token == null || token.getMaximum() < 0)
+			return false;
+		boolean lenient = calendar.isLenient();
+		calendar.setLenient(false);
+		try {
+			token.apply(calendar, value);
+			// the calendar validates the fields when the time is computed
+			calendar.getTimeInMillis();
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+		finally {
+			calendar.setLenient(lenient);
+		}
+		return true;
+	}
+
+	/**
+	 * Rolls the field of the calendar, returns false if the field can not be rolled or the result is rejected by the filter
+	 * If {@link #getRollToAccepted()} is set, the roll continues in the same direction until an accepted value is found
+	 */
+	public boolean roll(Calendar calendar, int field, int amount) {
+		int calendarField = model == null ? -1 : model.getCalendarField(field);
+		if (calendarField < 0)
+			return false;
+		if (!rollToAccepted || filter == null || amount == 0) {
+			calendar.roll(calendarField, amount);
+			return accept(calendar.getTime());
+		}
+		else if (calendarField == Calendar.DAY_OF_MONTH)
+			return rollDay(calendar, amount);
+		// at most one full cycle of the field
+		int values = calendar.getActualMaximum(calendarField) - calendar.getActualMinimum(calendarField) + 1;
+		for (int i = Math.min(values, MAX_ROLLS); i > 0; i--) {
+			calendar.roll(calendarField, amount);
+			if (accept(calendar.getTime()))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The days of the month are checked with a single span query
+	 */
+	private boolean rollDay(Calendar calendar, int amount) {
+		int day = calendar.get(Calendar.DAY_OF_MONTH);
+		int maximum = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+		Calendar first = (Calendar) calendar.clone();
+		first.set(Calendar.DAY_OF_MONTH, 1);
+		long accepted = acceptDays(first, maximum);
+		for (int i = 1; i <= maximum; i++) {
+			// the day wraps within the month, like a roll
+			int candidate = (int) Math.floorMod(day - 1 + (long) amount * i, (long) maximum) + 1;
+			if ((accepted & (1L << (candidate - 1))) != 0) {
+				calendar.set(Calendar.DAY_OF_MONTH, candidate);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Adds the amount to the calendar field (e.g. to go to the next month) and moves to the accepted day nearest to the resulting one
+	 * Only the days of the month that is reached are considered, for years the other months of that year are searched as well
+	 * Returns false if nothing is accepted, the calendar is left unchanged in that case
+	 */
+	public boolean step(Calendar calendar, int calendarField, int amount) {
+		Calendar target = (Calendar) calendar.clone();
+		target.add(calendarField, amount);
+		if (filter == null || (calendarField != Calendar.YEAR && calendarField != Calendar.MONTH && accept(target.getTime()))) {
+			calendar.setTimeInMillis(target.getTimeInMillis());
+			return true;
+		}
+		else if (calendarField != Calendar.YEAR && calendarField != Calendar.MONTH)
+			return false;
+		int month = target.get(Calendar.MONTH);
+		int day = target.get(Calendar.DAY_OF_MONTH);
+		int distances = calendarField == Calendar.YEAR ? 12 : 1;
+		// the months closest to the target month first
+		for (int distance = 0; distance < distances; distance++) {
+			for (int sign = -1; sign <= 1; sign += 2) {
+				int candidate = month + sign * distance;
+				if (candidate < 0 || candidate > 11 || (distance == 0 && sign > 0))
+					continue;
+				Calendar first = (Calendar) target.clone();
+				first.set(Calendar.DAY_OF_MONTH, 1);
+				first.set(Calendar.MONTH, candidate);
+				int nearest = nearestDay(first, candidate == month ? day : (candidate < month ? Integer.MAX_VALUE : 1));
+				if (nearest > 0) {
+					first.set(Calendar.DAY_OF_MONTH, nearest);
+					calendar.setTimeInMillis(first.getTimeInMillis());
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The accepted day of the month closest to the given day or -1 if there is none, the calendar must be set to the first of the month
+	 */
+	private int nearestDay(Calendar first, int day) {
+		int maximum = first.getActualMaximum(Calendar.DAY_OF_MONTH);
+		long accepted = acceptDays(first, maximum);
+		if (accepted == 0)
+			return -1;
+		day = Math.max(1, Math.min(day, maximum));
+		for (int distance = 0; distance < maximum; distance++) {
+			if (day - distance >= 1 && (accepted & (1L << (day - distance - 1))) != 0)
+				return day - distance;
+			if (day + distance <= maximum && (accepted & (1L << (day + distance - 1))) != 0)
+				return day + distance;
+		}
+		return -1;
+	}
+
+	private long acceptDays(Calendar start, int days) {
+		DatePickerMetrics metrics = getRecordingMetrics();
+		long timing = metrics.start();
+		long accepted = filter.acceptDays(start, days);
+		metrics.stop(DatePickerMetrics.FILTER_CALLS, timing);
+		return accepted;
+	}
+
+	/**
+	 * Rolls the field of the current value, the value is only updated if the result is accepted
+	 */
+	public boolean roll(int field, int amount) {
+		Calendar calendar = getCalendar();
+		if (calendar == null || !roll(calendar, field, amount))
+			return false;
+		setEpochMillis(calendar.getTimeInMillis());
+		return true;
+	}
+}
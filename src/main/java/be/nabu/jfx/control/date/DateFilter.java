@@ -17,8 +17,43 @@
 
 package be.nabu.jfx.control.date;
 
+import java.util.Calendar;
 import java.util.Date;
 
 public interface DateFilter {
 	public boolean accept(Date date);
+	
+	/**
+	 * Checks a span of consecutive days in one call, bit i of the result is set if the day i days after the start is accepted
+	 * Each day is checked at the time of day of the start, at most 64 days can be checked at once
+	 * The given calendar must not be modified, filters that can answer span queries more efficiently should override this
+	 */
+	public default long acceptDays(Calendar start, int days) {
+		if (days < 0 || days > 64)
+			throw new IllegalArgumentException("Can only check up to 64 days at once: " + days);
+		Calendar calendar = (Calendar) start.clone();
+		long accepted = 0;
+		for (int i = 0; i < days; i++) {
+			if (i > 0)
+				calendar.add(Calendar.DATE, 1);
+			if (accept(calendar.getTime()))
+				accepted |= 1L << i;
+		}
+		return accepted;
+	}
+	
+	/**
+	 * Whether any of the days in the span is accepted, the span can be of any length
+	 * The days are checked one by one and the check stops at the first accepted day
+	 */
+	public default boolean acceptAny(Calendar start, int days) {
+		Calendar calendar = (Calendar) start.clone();
+		for (int i = 0; i < days; i++) {
+			if (i > 0)
+				calendar.add(Calendar.DATE, 1);
+			if (accept(calendar.getTime()))
+				return true;
+		}
+		return false;
+	}
 }
@@ -0,0 +1,171 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Composes filters, the operands that are interval or weekday filters are compiled into a single filter of that type
+ * This means an arbitrarily large combination of date ranges still only costs a single binary search per lookup
+ */
+public class DateFilters {
+
+	/**
+	 * Accepts a date if all the filters accept it
+	 */
+	public static DateFilter and(DateFilter...filters) {
+		return compile(filters, true);
+	}
+
+	/**
+	 * Accepts a date if any of the filters accepts it
+	 */
+	public static DateFilter or(DateFilter...filters) {
+		return compile(filters, false);
+	}
+
+	public static DateFilter not(final DateFilter filter) {
+		if (filter instanceof IntervalFilter)
+			return ((IntervalFilter) filter).complement();
+		else if (filter instanceof WeekdayFilter)
+			return ((WeekdayFilter) filter).complement();
+		else if (filter instanceof Not)
+			return ((Not) filter).filter;
+		return new Not(filter);
+	}
+
+	private static DateFilter compile(DateFilter [] filters, boolean and) {
+		IntervalFilter intervals = null;
+		List<WeekdayFilter> weekdays = new ArrayList<WeekdayFilter>();
+		List<DateFilter> others = new ArrayList<DateFilter>();
+		for (DateFilter filter : filters) {
+			if (filter instanceof IntervalFilter) {
+				IntervalFilter interval = (IntervalFilter) filter;
+				intervals = intervals == null ? interval : (and ? intervals.intersect(interval) : intervals.union(interval));
+			}
+			else if (filter instanceof WeekdayFilter) {
+				WeekdayFilter weekday = (WeekdayFilter) filter;
+				boolean combined = false;
+				for (int i = 0; i < weekdays.size(); i++) {
+					WeekdayFilter result = weekdays.get(i).combine(weekday, and);
+					if (result != null) {
+						weekdays.set(i, result);
+						combined = true;
+						break;
+					}
+				}
+				if (!combined)
+					weekdays.add(weekday);
+			}
+			else if (filter != null)
+				others.add(filter);
+		}
+		List<DateFilter> operands = new ArrayList<DateFilter>();
+		// the compiled filters are the cheapest so they are evaluated first
+		if (intervals != null)
+			operands.add(intervals);
+		operands.addAll(weekdays);
+		operands.addAll(others);
+		if (operands.isEmpty())
+			return and ? IntervalFilter.ALL : IntervalFilter.NONE;
+		else if (operands.size() == 1)
+			return operands.get(0);
+		return new Composite(operands.toArray(new DateFilter[operands.size()]), and);
+	}
+
+	private static boolean isTimeSensitive(DateFilter filter) {
+		return filter instanceof TimeSensitiveFilter && ((TimeSensitiveFilter) filter).isTimeSensitive();
+	}
+
+	private static class Composite implements TimeSensitiveFilter {
+		private DateFilter [] filters;
+		private boolean and;
+
+		public Composite(DateFilter [] filters, boolean and) {
+			this.filters = filters;
+			this.and = and;
+		}
+
+		@Override
+		public boolean accept(Date date) {
+			for (DateFilter filter : filters) {
+				if (filter.accept(date) != and)
+					return !and;
+			}
+			return and;
+		}
+
+		@Override
+		public long acceptDays(Calendar start, int days) {
+			long all = getAllDays(days);
+			long accepted = and ? all : 0;
+			for (DateFilter filter : filters) {
+				if (and)
+					accepted &= filter.acceptDays(start, days);
+				else
+					accepted |= filter.acceptDays(start, days);
+				// the outcome can no longer change
+				if (accepted == (and ? 0 : all))
+					break;
+			}
+			return accepted;
+		}
+
+		@Override
+		public boolean isTimeSensitive() {
+			for (DateFilter filter : filters) {
+				if (DateFilters.isTimeSensitive(filter))
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private static class Not implements TimeSensitiveFilter {
+		private DateFilter filter;
+
+		public Not(DateFilter filter) {
+			this.filter = filter;
+		}
+
+		@Override
+		public boolean accept(Date date) {
+			return !filter.accept(date);
+		}
+
+		@Override
+		public long acceptDays(Calendar start, int days) {
+			return ~filter.acceptDays(start, days) & getAllDays(days);
+		}
+
+		@Override
+		public boolean isTimeSensitive() {
+			return DateFilters.isTimeSensitive(filter);
+		}
+	}
+
+	/**
+	 * A mask with a bit set for each of the days
+	 */
+	private static long getAllDays(int days) {
+		return days >= 64 ? -1L : (1L << days) - 1;
+	}
+}
@@ -0,0 +1,172 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * An immutable and thread-safe formatter for a given pattern, locale and timezone
+ *
+ * The parsing rules are those of a non-lenient SimpleDateFormat, the java.time formatters resolve some patterns (e.g. "yyyy" without an era) differently.
+ * Because SimpleDateFormat itself is not thread-safe, each thread works on its own copy of a single compiled prototype.
+ * Formatters are shared through a bounded cache so all pickers with the same settings use the same instance.
+ */
+public class DateFormatter {
+
+	private static final int MAX_CACHE_SIZE = 256;
+
+	private static Map<Key, DateFormatter> formatters = new LinkedHashMap<Key, DateFormatter>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, DateFormatter> eldest) {
+			return size() > MAX_CACHE_SIZE;
+		}
+	};
+
+	private String pattern;
+
+	private Locale locale;
+
+	private TimeZone timezone;
+
+	private DateFormat prototype;
+
+	private ThreadLocal<Formats> formats = new ThreadLocal<Formats>() {
+		@Override
+		protected Formats initialValue() {
+			return new Formats(toDateFormat());
+		}
+	};
+
+	public static DateFormatter getInstance(String pattern, Locale locale, TimeZone timezone) {
+		// the lookup uses the timezone of the caller as is, only a stored key holds on to a timezone
+		Key key = new Key(pattern, locale, timezone);
+		synchronized(formatters) {
+			DateFormatter formatter = formatters.get(key);
+			if (formatter == null) {
+				formatter = new DateFormatter(pattern, locale, timezone);
+				// the copy of the formatter is never exposed so it can not change while it is in the cache
+				formatters.put(new Key(pattern, locale, formatter.timezone), formatter);
+			}
+			return formatter;
+		}
+	}
+
+	private DateFormatter(String pattern, Locale locale, TimeZone timezone) {
+		this.pattern = pattern;
+		this.locale = locale;
+		this.timezone = timezone == null ? null : (TimeZone) timezone.clone();
+		SimpleDateFormat prototype = locale == null ? new SimpleDateFormat(pattern) : new SimpleDateFormat(pattern, locale);
+		prototype.setLenient(false);
+		if (timezone != null)
+			prototype.setTimeZone((TimeZone) timezone.clone());
+		this.prototype = prototype;
+	}
+
+	public Date parse(String text, ParsePosition position) {
+		return formats.get().format.parse(text, position);
+	}
+
+	public String format(Date date) {
+		return formats.get().format.format(date);
+	}
+
+	/**
+	 * Formats the timestamp without allocating a date for it
+	 */
+	public String format(long timestamp) {
+		Formats formats = this.formats.get();
+		formats.date.setTime(timestamp);
+		return formats.format.format(formats.date);
+	}
+
+	/**
+	 * Creates a new DateFormat with the same settings, the caller is free to modify it
+	 */
+	public DateFormat toDateFormat() {
+		synchronized(prototype) {
+			return (DateFormat) prototype.clone();
+		}
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public Locale getLocale() {
+		return locale;
+	}
+
+	/**
+	 * Returns a copy of the timezone, changes to it have no effect on the formatter
+	 */
+	public TimeZone getTimezone() {
+		return timezone == null ? null : (TimeZone) timezone.clone();
+	}
+
+	/**
+	 * The per thread state, the date is reused because the format does not hold on to it
+	 */
+	private static class Formats {
+		private DateFormat format;
+		private Date date = new Date();
+
+		public Formats(DateFormat format) {
+			this.format = format;
+		}
+	}
+
+	private static class Key {
+		private String pattern;
+		private Locale locale;
+		private String timezoneId;
+		private TimeZone timezone;
+
+		public Key(String pattern, Locale locale, TimeZone timezone) {
+			this.pattern = pattern;
+			this.locale = locale;
+			this.timezone = timezone;
+			this.timezoneId = timezone == null ? null : timezone.getID();
+		}
+
+		@Override
+		public int hashCode() {
+			int result = pattern.hashCode();
+			result = 31 * result + (locale == null ? 0 : locale.hashCode());
+			result = 31 * result + (timezoneId == null ? 0 : timezoneId.hashCode());
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Key))
+				return false;
+			Key other = (Key) object;
+			return pattern.equals(other.pattern)
+				&& (locale == null ? other.locale == null : locale.equals(other.locale))
+				&& (timezone == null ? other.timezone == null : other.timezone != null && timezoneId.equals(other.timezoneId) && timezone.hasSameRules(other.timezone));
+		}
+	}
+}
@@ -18,30 +18,34 @@
 package be.nabu.jfx.control.date;
 
 import java.text.DateFormat;
-import java.text.ParsePosition;
-import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
+import javafx.animation.AnimationTimer;
+import javafx.animation.PauseTransition;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.beans.property.ReadOnlyLongProperty;
+import javafx.beans.property.ReadOnlyLongWrapper;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
-import javafx.geometry.Side;
-import javafx.scene.Parent;
-import javafx.scene.control.ContextMenu;
-import javafx.scene.control.CustomMenuItem;
+import javafx.scene.Scene;
 import javafx.scene.control.TextField;
+import javafx.scene.input.ContextMenuEvent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
+import javafx.stage.Window;
+import javafx.util.Duration;
 
 /**
  * Not using date or calendar because they are not immutable
@@ -52,33 +56,96 @@ import javafx.scene.input.MouseEvent;
  * once the context menu is present, a mouse click on the text field no longer correctly updates the caret position
  * this means as long as the context menu is visible, you can NOT properly select fields with the mouse (linux only)
  * 
- * 2) When you display the day of the month and the day of the week at the same time, you can NOT update the day of the month
- * by entering the numbers manually. This is because each change is validated by parsing the resulting value
- * however while typing the day of month field, chances are the day of week does NOT match the day of month
- * Solution is to either not display them at the same time, edit them using the popup or use the arrow keys
+ * Typed digits are validated against the bounds of the field they belong to, the field is applied to the value once it is complete
+ * Only changes that span more than one field (e.g. pasting) are validated by parsing the whole text
  */
 public class DatePicker extends TextField {
 	
-	private ObjectProperty<Long> timestamp = new SimpleObjectProperty<Long>(this, "timestamp");
+	/**
+	 * The value is stored as primitive epoch millis with a separate flag for the absence of a value
+	 * The boxed timestamp property is only created when someone asks for it, it mirrors the primitive value
+	 * Both are written before either one notifies its listeners so they always see a consistent value
+	 */
+	private HeldLongWrapper epochMillis = new HeldLongWrapper(this, "epochMillis");
+	private HeldBooleanWrapper empty = new HeldBooleanWrapper(this, "empty", true);
+	private ObjectProperty<Long> timestamp;
+	
+	/**
+	 * Set while the primitive value is pushed to the boxed property
+	 */
+	private boolean mirroring = false;
+	
 	private ObjectProperty<Locale> locale = new SimpleObjectProperty<Locale>(this, "locale");
 	private ObjectProperty<TimeZone> timezone = new SimpleObjectProperty<TimeZone>(this, "timezone");
 	private ObjectProperty<String> format = new SimpleObjectProperty<String>(this, "format");
 	private ObjectProperty<DateFilter> filter = new SimpleObjectProperty<DateFilter>(this, "filter");
 	
-	private List<String> fields = null;
+	/**
+	 * The value the user has settled on, intermediate values while editing are not reflected here
+	 * Like the value itself it is stored as primitives, the boxed property is only created when someone asks for it
+	 */
+	private ReadOnlyLongWrapper committedEpochMillis = new ReadOnlyLongWrapper(this, "committedEpochMillis");
+	private ReadOnlyBooleanWrapper committedEmpty = new ReadOnlyBooleanWrapper(this, "committedEmpty", true);
+	private ReadOnlyObjectWrapper<Long> committedTimestamp;
 	
-	private DateFormat formatter;
+	/**
+	 * The picker is a view on this field, it holds the editing logic that does not depend on javafx
+	 */
+	private DateField field = new DateField(null);
 	
-	private Range<Integer> selectedRange;
+	/**
+	 * The editable ranges in the current text and the index of the selected one
+	 */
+	private FieldOffsets offsets = new FieldOffsets();
 	
-	private ContextMenu contextMenu;
+	/**
+	 * The work done by this picker, this can be shared by all the pickers on a screen
+	 * It is only created when it is asked for or when something is recorded while the metrics are enabled
+	 */
+	private DatePickerMetrics metrics;
 	
-	private PopupCalendar popupCalendar;
+	private int selectedRange = -1;
+	
+	/**
+	 * The popup owned by this picker, this is only created when it is first needed and never if a shared popup is used
+	 */
+	private DatePickerPopup popup;
 	
 	private boolean hideTimeControls = false;
 	
+	/**
+	 * If set, all the pickers in a window share a single popup instance
+	 */
+	private boolean sharedPopup = false;
+	
 	private boolean setting = false;
 	
+	/**
+	 * The depth of nested configuration blocks, changes to the settings are only applied when the outermost block ends
+	 */
+	private int configuring = 0;
+	private boolean reconfigured = false;
+	
+	/**
+	 * If set, rapid changes from the keyboard or the sliders are collected and only committed once per pulse
+	 */
+	private boolean coalesceUpdates = false;
+	
+	/**
+	 * The staged value that will be committed on the next pulse
+	 */
+	private long pendingTimestamp;
+	private boolean pending = false;
+	
+	private AnimationTimer pulse;
+	
+	/**
+	 * The amount of milliseconds the value must remain unchanged before it is committed, 0 means it is only committed explicitly
+	 */
+	private long settleDelay = 0;
+	
+	private PauseTransition settle;
+	
 	/**
 	 * The key handler must be registered on both the textfield and the popup to work properly for up and down keys
 	 */
@@ -97,10 +164,8 @@ public class DatePicker extends TextField {
 		// initializes all the listeners
 		initialize();
 		
-		// set default values, the order is important for the listeners
-		this.timezone.setValue(timezone == null ? TimeZone.getDefault() : timezone);
-		this.locale.setValue(locale == null ? Locale.getDefault() : locale);
-		this.format.setValue(format == null ? "yyyy/MM/dd HH:mm:ss" : format);
+		// set default values, they are applied together
+		configure(format == null ? "yyyy/MM/dd HH:mm:ss" : format, timezone == null ? TimeZone.getDefault() : timezone, locale == null ? Locale.getDefault() : locale);
 //		timestamp.setValue(new Date().getTime());
 		
 		// find and select a field
@@ -108,9 +173,9 @@ public class DatePicker extends TextField {
 		selectRange();
 	}
 
-	private void selectRange(Range<Integer> range) {
-		if (range != null) {
-			selectRange(range.getStart(), range.getEnd() + 1);
+	private void selectRange(int range) {
+		if (range >= 0) {
+			selectRange(offsets.getStart(range), offsets.getEnd(range) + 1);
 		}
 	}
 	
@@ -124,31 +189,55 @@ public class DatePicker extends TextField {
 	}
 	
 	private void updateTimestamp() {
+		// anything that was staged is older than what the user is committing now
+		commitPending();
 		if (getText() != null && !getText().trim().isEmpty()) {
-			ParsePosition position = new ParsePosition(0);
-			Date date = formatter.parse(getText(), position);
-			if (position.getErrorIndex() < 0) {
+			Date date = field.parse(getText());
+			if (date != null) {
 				// the change event is not triggered if the value hasn't changed
 				// so if you fill in the same twice, the textual value might not be updated to the proper format but it must
 				// e.g. the first time you fill in "1" for month, because it is different from the current month, the timestamp is updated and the textfield as well, resulting in 01
 				// if you type in 1 again, there is no change but the text field must still become 01
-				if (timestamp.getValue() != null && timestamp.getValue().equals(date.getTime()))
-					setText(formatter.format(date));
+				if (!empty.get() && epochMillis.get() == date.getTime())
+					setText(field.format(date.getTime()));
 				else
-					timestamp.setValue(date.getTime());
+					setEpochMillis(date.getTime());
 			}
+			// the text may not parse as a whole while a field is only partially typed, e.g. "Fri 2/03/2024" where the day of the week no longer matches
+			else if (!applySelectedField())
+				updateText();
 		}
 	}
 	
-	private void updateText() {
-		updateText(timestamp.getValue());
+	/**
+	 * Applies the digits of the selected field to the current value, returns false if they do not form a valid and accepted value
+	 */
+	private boolean applySelectedField() {
+		FormatModel model = field.getFormatModel();
+		Calendar calendar = getCalendar();
+		if (model == null || calendar == null || selectedRange < 0 || offsets.getCount() != model.getNumericFieldCount())
+			return false;
+		int start = offsets.getStart(selectedRange);
+		int end = Math.min(offsets.getEnd(selectedRange) + 1, start + 9);
+		int value = 0;
+		for (int i = start; i < end; i++)
+			value = value * 10 + getText().charAt(i) - '0';
+		if (!field.apply(calendar, getFieldIndex(selectedRange), value) || !isAccepted(calendar.getTime()))
+			return false;
+		long time = calendar.getTimeInMillis();
+		// reformat even if the value is the same, e.g. "2" for the 2nd must still become "02"
+		if (epochMillis.get() == time)
+			updateText();
+		else
+			setEpochMillis(time);
+		return true;
 	}
 	
-	private void updateText(Long value) {
-		if (formatter != null && value != null) {
+	private void updateText() {
+		if (field.getFormatter() != null && !empty.get()) {
 			setting = true;
 			try {
-				setText(formatter.format(new Date(value)));
+				setText(field.getText());
 				refreshRange();
 				selectRange();
 			}
@@ -156,24 +245,79 @@ public class DatePicker extends TextField {
 				setting = false;
 			}
 		}
-		else if (value == null) {
+		else if (empty.get()) {
 			setText("");
 		}
 	}
 	
-	private void refreshRange() {
-		if (selectedRange == null) {
-			// check if we have a range at the start
-			selectedRange = getValueRange(0);
-			// if not, check for the next range
-			if (selectedRange == null)
-				findNextRange(0);
+	/**
+	 * Validates a change that is limited to the digits of the selected field
+	 * A complete field is applied to the current value, this keeps the other fields (e.g. the day of the week) consistent while typing
+	 */
+	private int validateField(String oldValue, String newValue) {
+		FormatModel model = field.getFormatModel();
+		if (model == null || selectedRange < 0 || offsets.getCount() != model.getNumericFieldCount())
+			return DateField.UNBOUNDED;
+		// everything around the field must be untouched
+		int start = offsets.getStart(selectedRange);
+		int end = offsets.getEnd(selectedRange) + 1;
+		int suffix = newValue.length() - end;
+		int oldEnd = oldValue.length() - suffix;
+		if (oldEnd < start || !oldValue.regionMatches(0, newValue, 0, start) || !oldValue.regionMatches(oldEnd, newValue, end, suffix))
+			return DateField.UNBOUNDED;
+		for (int i = start; i < oldEnd; i++) {
+			if (!FieldOffsets.isValidValueChar(oldValue.charAt(i)))
+				return DateField.UNBOUNDED;
 		}
+		int digits = Math.min(end - start, 9);
+		int value = 0;
+		for (int i = start; i < start + digits; i++)
+			value = value * 10 + newValue.charAt(i) - '0';
+		int index = getFieldIndex(selectedRange);
+		int result = field.validate(index, value, end - start);
+		if (result != DateField.COMPLETE)
+			return result;
+		commitPending();
+		Calendar calendar = getCalendar();
+		if (calendar == null)
+			return DateField.UNBOUNDED;
+		// e.g. the 31st of a month that only has 30 days
+		if (!field.apply(calendar, index, value) || !isAccepted(calendar.getTime()))
+			return DateField.INVALID;
+		long time = calendar.getTimeInMillis();
+		// reformat even if the value is the same, e.g. "1" for the current month must still become "01"
+		if (!empty.get() && epochMillis.get() == time)
+			updateText();
 		else
-			selectedRange = getValueRange(selectedRange.getStart());
+			setEpochMillis(time);
+		return DateField.COMPLETE;
+	}
+	
+	/**
+	 * A rejected value is only reverted if the current value is actually accepted
+	 * This protects against recursion, it is up to the developer to make sure the initial value (whatever it is) conforms to the filter
+	 */
+	private boolean isAccepted(Date date) {
+		return field.accept(date) || !field.accept(getDate());
+	}
+	
+	private void refreshRange() {
+		// the ranges follow the format so the same index still points to the same field after the text changes
+		if (selectedRange >= offsets.getCount())
+			selectedRange = offsets.getCount() - 1;
+		// select the first range if there is none yet
+		else if (selectedRange < 0 && offsets.getCount() > 0)
+			selectedRange = 0;
 	}
 
 	private void initialize() {
+		// the work of the field is recorded wherever the picker records its own
+		field.setMetrics(new Supplier<DatePickerMetrics>() {
+			@Override
+			public DatePickerMetrics get() {
+				return getRecordingMetrics();
+			}
+		});
 		// if the text property is updated (through api or by the user) this should be processed
 		// note that we do NOT update the timestamp just yet, the user may have typed "1" because he wants to type "12"
 		// however if you would update the timestamp you would send out an "invalid" update event to whoever is listening
@@ -181,25 +325,26 @@ public class DatePicker extends TextField {
 		textProperty().addListener(new ChangeListener<String>() {
 			@Override
 			public void changed(ObservableValue<? extends String> observableValue, String oldValue, String newValue) {
+				// the offset table is rebuilt exactly once per change, whoever changed the text
+				offsets.update(newValue);
 				if (!setting) {
 					if (oldValue == null || oldValue.trim().isEmpty()) {
-						timestamp.set(new Date().getTime());
+						setEpochMillis(System.currentTimeMillis());
 					}
 					else if (newValue != null && !newValue.trim().isEmpty()) {
-						ParsePosition position = new ParsePosition(0);
-						Date parsed = getFormatter().parse(newValue, position);
-						// not a valid date according to the format, revert value
-						if (position.getErrorIndex() >= 0) 
-							setText(oldValue);
-						else if (filter.isNotNull().getValue() && !filter.getValue().accept(parsed)) {
-							// only revert to the old value if that was actually accepted
-							// this protects against recursion, it is up to the developer to make sure the initial value (whatever it is) conforms to the filter
-							if (filter.getValue().accept(getDate()))
+						int result = validateField(oldValue, newValue);
+						if (result == DateField.UNBOUNDED) {
+							Date parsed = field.parse(newValue);
+							// not a valid date according to the format, revert value
+							if (parsed == null || !isAccepted(parsed))
 								setText(oldValue);
 						}
+						else if (result == DateField.INVALID)
+							setText(oldValue);
 						refreshRange();
 						// position the caret after what you just edited, that way you can continue typing
-						positionCaret(selectedRange.getEnd() + 1);
+						if (selectedRange >= 0)
+							positionCaret(offsets.getEnd(selectedRange) + 1);
 					}
 				}
 			}
@@ -212,7 +357,10 @@ public class DatePicker extends TextField {
 				if (!isFocused) {
 					// we need to update the timestamp because the user might have finished typing something
 					updateTimestamp();
-					getContextMenu().hide();
+					DatePickerPopup popup = getBoundPopup();
+					if (popup != null)
+						popup.hide(DatePicker.this);
+					commit();
 				}
 				// otherwise, if we gain focus, we must make sure we have something selected
 				else {
@@ -225,23 +373,33 @@ public class DatePicker extends TextField {
 			}
 		});
 
+		// a picker that leaves its window (e.g. a recycled table cell) must not be kept alive by the popup of that window
+		sceneProperty().addListener(new ChangeListener<Scene>() {
+			@Override
+			public void changed(ObservableValue<? extends Scene> arg0, Scene oldScene, Scene newScene) {
+				if (oldScene != null)
+					releasePopup(oldScene.getWindow());
+			}
+		});
+
 		// if you click a mouse somewhere, select the field nearby
 		addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
 			@Override
 			public void handle(MouseEvent event) {
 				// select the new range
-				selectedRange = getValueRange(getCaretPosition());
+				int caret = getCaretPosition();
+				selectedRange = offsets.getRange(caret);
 				// if there is no range where the user clicked, get the closest one
-				if (selectedRange == null) {
-					selectedRange = findPreviousRange(getCaretPosition());
-					if (selectedRange == null)
-						selectedRange = findNextRange(getCaretPosition());
+				if (selectedRange < 0) {
+					selectedRange = offsets.getPrevious(caret);
+					if (selectedRange < 0)
+						selectedRange = offsets.getNext(caret);
 				}
-				if (selectedRange != null) {
+				if (selectedRange >= 0) {
 					// select the range we just found
 					selectRange();
 					event.consume();
-					getContextMenu().show(DatePicker.this, Side.BOTTOM, 0, 0);
+					showPopup();
 					requestFocus();
 				}
 			}
@@ -250,16 +408,22 @@ public class DatePicker extends TextField {
 		keyHandler = new EventHandler<KeyEvent>() {
 			@Override
 			public void handle(KeyEvent event) {
+				// alt+down opens the popup, much like a combobox
+				if (event.getCode() == KeyCode.DOWN && event.isAltDown()) {
+					showPopup();
+					event.consume();
+				}
 				// if you are going left or right, and you go past the boundaries, select the whole previous or next bit
-				if (event.getCode() == KeyCode.LEFT || event.getCode() == KeyCode.RIGHT) {
+				else if (event.getCode() == KeyCode.LEFT || event.getCode() == KeyCode.RIGHT) {
 					// first off, update the timestamp because the user is done editing the previous field
 					updateTimestamp();
+					refreshRange();
 					// we need a new range based on the current range
-					Range<Integer> sibling = event.getCode() == KeyCode.LEFT 
-						? findPreviousRange(selectedRange.getStart())
-						: findNextRange(selectedRange.getStart());
+					int sibling = event.getCode() == KeyCode.LEFT 
+						? selectedRange - 1
+						: selectedRange + 1;
 					// only update the selected range if there is in fact another range
-					if (sibling != null)
+					if (sibling >= 0 && sibling < offsets.getCount())
 						selectedRange = sibling;
 					selectRange(selectedRange);
 					// stop default behavior
@@ -267,12 +431,10 @@ public class DatePicker extends TextField {
 				}
 				// increase/decrease the current field
 				else if (event.getCode() == KeyCode.UP || event.getCode() == KeyCode.DOWN) {
-					Calendar calendar = getCalendar();
+					Calendar calendar = getWorkingCalendar();
 					int factor = event.getCode() == KeyCode.UP ? 1 : -1;
-					int calendarField = fieldToCalendarField(getFieldIndex(selectedRange.getStart()));
-					calendar.roll(calendarField, factor);
-					if (filter.getValue() == null || filter.getValue().accept(calendar.getTime()))
-						setCalendar(calendar);
+					if (calendar != null && field.roll(calendar, getFieldIndex(selectedRange), factor))
+						stageCalendar(calendar);
 					refreshRange();
 					selectRange();
 					event.consume();
@@ -282,10 +444,12 @@ public class DatePicker extends TextField {
 					updateTimestamp();
 					refreshRange();
 					selectRange();
+					commit();
 					event.consume();
 				}
 				else if (event.getCode() == KeyCode.DELETE) {
-					timestamp.setValue(null);
+					pending = false;
+					clearTimestamp();
 					event.consume();
 				}
 			}
@@ -295,41 +459,47 @@ public class DatePicker extends TextField {
 		// left and right move between groups whilst up and down increase or decrease the value of the selected field
 		addEventFilter(KeyEvent.KEY_PRESSED, keyHandler);
 		
+		// the popup doubles as context menu, make sure it exists before the default text field menu is used
+		addEventFilter(ContextMenuEvent.CONTEXT_MENU_REQUESTED, new EventHandler<ContextMenuEvent>() {
+			@Override
+			public void handle(ContextMenuEvent event) {
+				DatePickerPopup popup = getPopup();
+				popup.bind(DatePicker.this);
+				setContextMenu(popup.getContextMenu());
+			}
+		});
+		
 		addEventHandler(KeyEvent.KEY_RELEASED, new EventHandler<KeyEvent>() {
 			@Override
 			public void handle(KeyEvent event) {
 				// typing letters will move the caret
 				// this is usually ok unless you type something wrong, the value will be reset but the caret will still move
-				if (selectedRange != null && event.getCode() != KeyCode.UP && event.getCode() != KeyCode.DOWN && event.getCode() != KeyCode.LEFT && event.getCode() != KeyCode.RIGHT && event.getCode() != KeyCode.ENTER)
-					positionCaret(selectedRange.getEnd() + 1);
+				if (selectedRange >= 0 && selectedRange < offsets.getCount() && event.getCode() != KeyCode.UP && event.getCode() != KeyCode.DOWN && event.getCode() != KeyCode.LEFT && event.getCode() != KeyCode.RIGHT && event.getCode() != KeyCode.ENTER)
+					positionCaret(offsets.getEnd(selectedRange) + 1);
 			}
 		});
 		
 		format.addListener(new ChangeListener<String>() {
 			@Override
 			public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
-				Pattern pattern = Pattern.compile("[\\w]+");
-				Matcher matcher = pattern.matcher(newValue);
-				fields = new ArrayList<String>();
-				while (matcher.find()) {
-					String group = matcher.group();
-					if (group.matches(".*[GWwFzZ]+.*"))
-						throw new IllegalArgumentException("The formatted string " + group + " is not supported");
-					else
-						fields.add(group);
+				if (configuring > 0)
+					reconfigured = true;
+				else {
+					field.setFormat(newValue);
+					updateText();
+					// the context menu relies on the format
+					invalidatePopup();
 				}
-				updateFormatter();
-				updateText();
-				// update the context menu, it relies on the format
-				buildContextMenu();
 			}
 		});
 		
 		timezone.addListener(new ChangeListener<TimeZone>() {
 			@Override
 			public void changed(ObservableValue<? extends TimeZone> arg0, TimeZone arg1, TimeZone newValue) {
-				if (formatter != null) {
-					formatter.setTimeZone(newValue);
+				if (configuring > 0)
+					reconfigured = true;
+				else {
+					field.setTimezone(newValue);
 					updateText();
 				}
 			}
@@ -338,163 +508,195 @@ public class DatePicker extends TextField {
 		locale.addListener(new ChangeListener<Locale>() {
 			@Override
 			public void changed(ObservableValue<? extends Locale> arg0, Locale arg1, Locale newValue) {
-				updateFormatter();
-				updateText();
+				if (configuring > 0)
+					reconfigured = true;
+				else {
+					field.setLocale(newValue);
+					updateText();
+				}
 			}
 		});
 		
-		timestamp.addListener(new ChangeListener<Long>() {
+		filter.addListener(new ChangeListener<DateFilter>() {
 			@Override
-			public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-				if (arg2 == null) {
-					setText("");
-				}
-				else {
-					updateText(arg2);
-				}
+			public void changed(ObservableValue<? extends DateFilter> arg0, DateFilter arg1, DateFilter newValue) {
+				field.setFilter(newValue);
 			}
-		});		
+		});
 		
 		getStyleClass().add("nabu-date-picker");
 	}
 	
-	private void updateFormatter() {
-		if (format.getValue() != null) {
-			formatter = locale.getValue() == null ? new SimpleDateFormat(format.getValue()) : new SimpleDateFormat(format.getValue(), locale.getValue());
-			formatter.setLenient(false);
-			if (timezone != null)
-				formatter.setTimeZone(timezone.getValue());
+	/**
+	 * The single place where the value is changed, it updates both the primitive and the boxed representation
+	 */
+	private void writeTimestamp(boolean isEmpty, long value) {
+		if (isEmpty == empty.get() && (isEmpty || value == epochMillis.get()))
+			return;
+		epochMillis.hold();
+		empty.hold();
+		try {
+			if (isEmpty)
+				field.clear();
+			else {
+				field.setEpochMillis(value);
+				epochMillis.set(value);
+			}
+			empty.set(isEmpty);
+		}
+		finally {
+			// going from or to an empty value is a change of the value as well, even if the millis stay the same
+			boolean emptied = empty.release(false);
+			epochMillis.release(emptied);
+		}
+		getRecordingMetrics().increment(DatePickerMetrics.TIMESTAMP_CHANGES);
+		timestampChanged();
+		// only box the value if the object api is in use
+		if (timestamp != null && !timestamp.isBound()) {
+			mirroring = true;
+			try {
+				timestamp.setValue(isEmpty ? null : value);
+			}
+			finally {
+				mirroring = false;
+			}
 		}
 	}
 	
-	private void buildContextMenu() {
-		if (contextMenu == null) {
-			CustomMenuItem menuItem = new CustomMenuItem();
-			menuItem.setHideOnClick(false);
-			menuItem.getStyleClass().add("nabu-date-picker-popup");
-			contextMenu = new ContextMenu();
-			contextMenu.addEventFilter(KeyEvent.KEY_PRESSED, keyHandler);
-			contextMenu.getStyleClass().add("nabu-date-picker-popup");
-			// this prevents context menu from closing when you click on the text field (allowing you for example to select parts)
-			contextMenu.addEventFilter(MouseEvent.MOUSE_PRESSED, new EventHandler<MouseEvent>() {
-				@Override
-				public void handle(MouseEvent event) {
-					event.consume();
-				}
-			});
-			// this prevents the context menu from gaining focus when you move over the text field
-			contextMenu.addEventFilter(MouseEvent.MOUSE_MOVED, new EventHandler<MouseEvent>() {
-				@Override
-				public void handle(MouseEvent event) {
-					menuItem.getContent().requestFocus();
-					event.consume();
-				}
-			});
-			contextMenu.focusedProperty().addListener(new ChangeListener<Boolean>() {
-				@Override
-				public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean arg2) {
-					if (arg2 != null && arg2) {
-						menuItem.getContent().requestFocus();
+	private void timestampChanged() {
+		updateText();
+		// changes that are not made by the user are committed immediately
+		if (!isEditing())
+			commit();
+		else if (settleDelay > 0) {
+			if (settle == null) {
+				settle = new PauseTransition();
+				settle.setOnFinished(new EventHandler<ActionEvent>() {
+					@Override
+					public void handle(ActionEvent event) {
+						commit();
 					}
-				}
-			});
-			contextMenu.getItems().add(menuItem);
-			setContextMenu(contextMenu);
+				});
+			}
+			settle.setDuration(Duration.millis(settleDelay));
+			settle.playFromStart();
 		}
-		final Parent popup = getPopupCalendar().build();
-		((CustomMenuItem) contextMenu.getItems().get(0)).setContent(popup);
-		popup.requestFocus();
 	}
 	
-	private PopupCalendar getPopupCalendar() {
-		if (popupCalendar == null)
-			popupCalendar = new PopupCalendar(this);
-		return popupCalendar;
+	/**
+	 * Hides and unbinds the popup this picker uses in the given window, the popup is bound again when it is needed
+	 */
+	private void releasePopup(Window window) {
+		if (popup != null)
+			popup.hide(this);
+		else if (window != null) {
+			DatePickerPopup shared = DatePickerPopup.findShared(window);
+			if (shared != null)
+				shared.release(this);
+		}
 	}
 	
 	/**
-	 * Finds the next part
-	 * @param position
-	 * @return
+	 * Commits the current value and releases everything that may keep this picker alive outside of its own scene graph: running timers and popups
+	 * The picker remains usable, the popup is recreated when it is needed again
 	 */
-	private Range<Integer> findNextRange(int position) {
-		Range<Integer> range = getValueRange(position);
-		for (int i = range == null ? position : range.getEnd() + 1; i < getText().length(); i++) {
-			if (isValidValueChar(getText().charAt(i)))
-				return getValueRange(i);
+	public void dispose() {
+		commit();
+		if (popup != null) {
+			popup.dispose();
+			popup = null;
 		}
-		return null;
+		else if (getScene() != null)
+			releasePopup(getScene().getWindow());
+		setContextMenu(null);
+	}
+	
+	/**
+	 * Starts a block in which the format, timezone and locale can be changed without any immediate effect
+	 * The changes are applied together by the matching {@link #endConfigure()}, blocks can be nested
+	 */
+	public void beginConfigure() {
+		configuring++;
 	}
-	private Range<Integer> findPreviousRange(int position) {
-		Range<Integer> range = getValueRange(position);
-		for (int i = range == null ? position : range.getStart() - 1; i >= 0; i--) {
-			if (i < getText().length() && isValidValueChar(getText().charAt(i)))
-				return getValueRange(i);
+	
+	/**
+	 * Ends a configuration block, at the end of the outermost one the formatter, text and popup are updated once for all the changes
+	 */
+	public void endConfigure() {
+		if (configuring == 0)
+			throw new IllegalStateException("There is no configuration block to end");
+		if (--configuring == 0 && reconfigured) {
+			reconfigured = false;
+			field.configure(format.getValue(), timezone.getValue(), locale.getValue());
+			updateText();
+			invalidatePopup();
 		}
-		return null;
 	}
 	
-	private Range<Integer> getValueRange(int position) {
-		if (position >= getText().length())
-			position = getText().length() - 1;
-		
-		if (position >= 0 && isValidValueChar(getText().charAt(position))) {
-			// find start
-			Integer start = position;
-			for (int i = position; i >= 0; i--) {
-				if (isValidValueChar(getText().charAt(i)))
-					start = i;
-				else
-					break;
-			}
-			// find end
-			Integer end = position;
-			for (int i = position; i < getText().length(); i++) {
-				if (isValidValueChar(getText().charAt(i)))
-					end = i;
-				else
-					break;
-			}
-			return new Range<Integer>(start, end);
+	/**
+	 * Changes the settings in a single configuration block, a null value leaves that setting unchanged
+	 * This is the cheapest way to e.g. switch the locale of a whole form
+	 */
+	public void configure(String format, TimeZone timezone, Locale locale) {
+		beginConfigure();
+		try {
+			if (timezone != null)
+				this.timezone.setValue(timezone);
+			if (locale != null)
+				this.locale.setValue(locale);
+			if (format != null)
+				this.format.setValue(format);
 		}
-		else
-			return null;
+		finally {
+			endConfigure();
+		}
+	}
+	
+	private void invalidatePopup() {
+		DatePickerPopup popup = getBoundPopup();
+		if (popup != null)
+			popup.invalidate(this);
+	}
+	
+	private void showPopup() {
+		DatePickerPopup popup = getPopup();
+		popup.show(this);
+		setContextMenu(popup.getContextMenu());
 	}
 	
 	/**
-	 * Follows the regex \w convention
-	 * @param charCode
-	 * @return
+	 * Returns the popup this picker should use, the shared one can only be used once the picker is in a window
 	 */
-	private static boolean isValidValueChar(int charCode) {
-		return (charCode >= 48 && charCode <= 57);
-//			|| (charCode >= 65 && charCode <= 90)
-//			|| (charCode >= 97 && charCode <= 122)
-//			|| charCode == 95;
+	private DatePickerPopup getPopup() {
+		if (sharedPopup && getScene() != null && getScene().getWindow() != null)
+			return DatePickerPopup.getShared(getScene().getWindow());
+		if (popup == null)
+			popup = new DatePickerPopup();
+		return popup;
 	}
 	
-	private Integer getFieldIndex(int startPosition) {
-		if (startPosition >= getText().length())
-			startPosition = getText().length() - 1;
-		
-		if (!isValidValueChar(getText().charAt(startPosition)))
-			return null;
-		
-		int part = 0;
-		boolean isAlfaNumeric = true;
-		for (int i = startPosition; i >= 0; i--) {
-			if (isValidValueChar(getText().charAt(i))) {
-				if (!isAlfaNumeric) {
-					part++;
-					isAlfaNumeric = true;
-				}
-			}
-			else {
-				if (isAlfaNumeric)
-					isAlfaNumeric = false;
-			}
+	/**
+	 * Returns the popup that is currently bound to this picker (if any) without creating one
+	 */
+	private DatePickerPopup getBoundPopup() {
+		if (popup != null)
+			return popup;
+		else if (getContextMenu() != null && getScene() != null && getScene().getWindow() != null) {
+			DatePickerPopup shared = DatePickerPopup.findShared(getScene().getWindow());
+			return shared != null && shared.isBoundTo(this) ? shared : null;
 		}
-		return part;
+		return null;
+	}
+	
+	EventHandler<KeyEvent> getKeyHandler() {
+		return keyHandler;
+	}
+	
+	/**
+	 * The digits in the text belong to the numeric fields of the format, in order
+	 */
+	private int getFieldIndex(int range) {
+		return field.getFormatModel() == null || range < 0 ? -1 : field.getFormatModel().getNumericField(range);
 	}
 	
 	@Override
@@ -502,9 +704,71 @@ public class DatePicker extends TextField {
 		return DatePicker.class.getClassLoader().getResource("jfx-date-picker.css").toExternalForm();
 	}
 	
+	/**
+	 * The boxed timestamp, null if there is no value
+	 * For bulk updates the primitive {@link #setEpochMillis(long)} and {@link #epochMillisProperty()} avoid boxing
+	 */
 	public ObjectProperty<Long> timestampProperty() {
+		if (timestamp == null) {
+			timestamp = new SimpleObjectProperty<Long>(this, "timestamp", empty.get() ? null : epochMillis.get());
+			timestamp.addListener(new ChangeListener<Long>() {
+				@Override
+				public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
+					if (!mirroring)
+						writeTimestamp(arg2 == null, arg2 == null ? 0 : arg2);
+				}
+			});
+		}
 		return timestamp;
 	}
+	/**
+	 * The epoch millis of the current value, this is meaningless if {@link #isEmpty()}
+	 */
+	public ReadOnlyLongProperty epochMillisProperty() {
+		return epochMillis.getReadOnlyProperty();
+	}
+	/**
+	 * Whether the picker currently has no value
+	 */
+	public ReadOnlyBooleanProperty emptyProperty() {
+		return empty.getReadOnlyProperty();
+	}
+	public long getEpochMillis() {
+		return epochMillis.get();
+	}
+	public void setEpochMillis(long epochMillis) {
+		writeTimestamp(false, epochMillis);
+	}
+	public boolean isEmpty() {
+		return empty.get();
+	}
+	public void clearTimestamp() {
+		writeTimestamp(true, 0);
+	}
+	/**
+	 * Only changes when the user is done editing: on focus loss, enter, closing the popup or when the value has not changed for the settle delay
+	 * For bulk updates the primitive {@link #committedEpochMillisProperty()} avoids boxing
+	 */
+	public ReadOnlyObjectProperty<Long> committedTimestampProperty() {
+		if (committedTimestamp == null)
+			committedTimestamp = new ReadOnlyObjectWrapper<Long>(this, "committedTimestamp", committedEmpty.get() ? null : committedEpochMillis.get());
+		return committedTimestamp.getReadOnlyProperty();
+	}
+	/**
+	 * The epoch millis of the committed value, this is meaningless if {@link #isCommittedEmpty()}
+	 */
+	public ReadOnlyLongProperty committedEpochMillisProperty() {
+		return committedEpochMillis.getReadOnlyProperty();
+	}
+	public ReadOnlyBooleanProperty committedEmptyProperty() {
+		return committedEmpty.getReadOnlyProperty();
+	}
+	public long getCommittedEpochMillis() {
+		return committedEpochMillis.get();
+	}
+	public boolean isCommittedEmpty() {
+		return committedEmpty.get();
+	}
 	public ObjectProperty<Locale> localeProperty() {
 		return locale;
 	}
@@ -520,85 +784,257 @@ public class DatePicker extends TextField {
 	}
 	public void setHideTimeControls(boolean hideTimeControls) {
 		this.hideTimeControls = hideTimeControls;
+		invalidatePopup();
+	}
+	public boolean getSharedPopup() {
+		return sharedPopup;
+	}
+	public void setSharedPopup(boolean sharedPopup) {
+		this.sharedPopup = sharedPopup;
+	}
+	/**
+	 * If set, up and down skip the values that are rejected by the filter instead of ignoring the key
+	 */
+	public boolean getRollToAccepted() {
+		return field.getRollToAccepted();
+	}
+	public void setRollToAccepted(boolean rollToAccepted) {
+		field.setRollToAccepted(rollToAccepted);
+	}
+	public DatePickerMetrics getMetrics() {
+		if (metrics == null)
+			setMetrics(new DatePickerMetrics());
+		return metrics;
+	}
+	/**
+	 * The metrics to record to, while nothing is being recorded the global metrics stand in so no instance is created
+	 */
+	DatePickerMetrics getRecordingMetrics() {
+		return metrics != null || DatePickerMetrics.isGlobalEnabled() ? getMetrics() : DatePickerMetrics.getGlobal();
+	}
+	/**
+	 * Pickers that share the same metrics are counted together, e.g. to see what a single screen costs
+	 */
+	public void setMetrics(DatePickerMetrics metrics) {
+		if (metrics == null)
+			throw new IllegalArgumentException("The metrics can not be null");
+		this.metrics = metrics;
+	}
+	public long getSettleDelay() {
+		return settleDelay;
+	}
+	public void setSettleDelay(long settleDelay) {
+		this.settleDelay = settleDelay;
+	}
+	public boolean getCoalesceUpdates() {
+		return coalesceUpdates;
+	}
+	public void setCoalesceUpdates(boolean coalesceUpdates) {
+		this.coalesceUpdates = coalesceUpdates;
+		if (!coalesceUpdates)
+			commitPending();
 	}
 	public Date getDate() {
-		return timestamp.getValue() == null ? null : new Date(timestamp.getValue());
+		return empty.get() ? null : new Date(epochMillis.get());
 	}
 	
 	public void setDate(Date date) {
-		timestamp.setValue(date == null ? null : date.getTime());
+		writeTimestamp(date == null, date == null ? 0 : date.getTime());
 	}
 	
 	public Calendar getCalendar() {
-		if (timestamp.getValue() == null)
-			return null;
-		else {
-			Calendar calendar = Calendar.getInstance(timezone.getValue(), locale.getValue());
-			calendar.setTime(new Date(timestamp.getValue()));
-			return calendar;
-		}
+		return field.getCalendar();
 	}
 	
 	public void setCalendar(Calendar calendar) {
+		// an explicit value overrides anything that is still staged
+		pending = false;
+		timezone.setValue(calendar.getTimeZone());
+		setEpochMillis(calendar.getTimeInMillis());
+	}
+	
+	/**
+	 * Returns the calendar including any change that is staged but not yet committed
+	 */
+	Calendar getWorkingCalendar() {
+		if (!pending)
+			return getCalendar();
+		Calendar calendar = field.newCalendar();
+		calendar.setTimeInMillis(pendingTimestamp);
+		return calendar;
+	}
+	
+	/**
+	 * Sets the calendar immediately or, when coalescing, on the next pulse
+	 * All the values staged within one pulse result in a single update of the timestamp
+	 */
+	void stageCalendar(Calendar calendar) {
+		if (!coalesceUpdates) {
+			setCalendar(calendar);
+			return;
+		}
 		timezone.setValue(calendar.getTimeZone());
-		timestamp.setValue(calendar.getTime().getTime());
+		long value = calendar.getTimeInMillis();
+		// nothing to stage, e.g. the sliders being updated to the committed value
+		if (!pending && !empty.get() && epochMillis.get() == value)
+			return;
+		pendingTimestamp = value;
+		if (!pending) {
+			pending = true;
+			if (pulse == null) {
+				pulse = new AnimationTimer() {
+					@Override
+					public void handle(long now) {
+						commitPending();
+					}
+				};
+			}
+			pulse.start();
+		}
 	}
 	
+	/**
+	 * Marks the current value as the one the user settled on
+	 */
+	public void commit() {
+		commitPending();
+		if (settle != null)
+			settle.stop();
+		if (empty.get() == committedEmpty.get() && (empty.get() || epochMillis.get() == committedEpochMillis.get()))
+			return;
+		if (!empty.get())
+			committedEpochMillis.set(epochMillis.get());
+		committedEmpty.set(empty.get());
+		// only box the value if the object api is in use
+		if (committedTimestamp != null)
+			committedTimestamp.set(empty.get() ? null : epochMillis.get());
+	}
+	
+	/**
+	 * Whether the user is currently interacting with the picker or its popup
+	 */
+	private boolean isEditing() {
+		if (isFocused())
+			return true;
+		DatePickerPopup popup = getBoundPopup();
+		return popup != null && popup.isShowing(this);
+	}
+	
+	/**
+	 * Commits the staged value (if any) right away
+	 */
+	public void commitPending() {
+		if (pulse != null)
+			pulse.stop();
+		if (pending) {
+			pending = false;
+			setEpochMillis(pendingTimestamp);
+		}
+	}
+	
+	/**
+	 * Returns a copy of the current formatter, changes to it have no effect on the picker
+	 */
 	public DateFormat getFormatter() {
-		return formatter;
+		return field.getFormatter() == null ? null : field.getFormatter().toDateFormat();
 	}
 	
-	int fieldToCalendarField(int field) {
-		if (field >= fields.size() || field < 0)
-			return -1;
-		
-		String currentField = fields.get(field);
-		if (currentField.matches("[m]+"))
-			return Calendar.MINUTE;
-		else if (currentField.matches("[s]+"))
-			return Calendar.SECOND;
-		else if (currentField.matches("[HkKh]+"))
-			return Calendar.HOUR_OF_DAY;
-		else if (currentField.matches("[D]+"))
-			return Calendar.DATE;
-		else if (currentField.matches("[d]+"))
-			return Calendar.DAY_OF_MONTH;
-		else if (currentField.matches("[F]+"))
-			return Calendar.DAY_OF_WEEK_IN_MONTH;
-		else if (currentField.matches("[E]+"))
-			return Calendar.DAY_OF_WEEK;
-		else if (currentField.matches("[M]+"))
-			return Calendar.MONTH;
-		else if (currentField.matches("[y]+"))
-			return Calendar.YEAR;
-		else if (currentField.matches("[S]+"))
-			return Calendar.MILLISECOND;
-		else if (currentField.matches("[w]+"))
-			return Calendar.WEEK_OF_YEAR;
-		else if (currentField.matches("[W]+"))
-			return Calendar.WEEK_OF_MONTH;
-		else if (currentField.matches("[a]+"))
-			return Calendar.AM_PM;
-		else
-			return -1;
+	public DateFormatter getDateFormatter() {
+		return field.getFormatter();
+	}
+	
+	public FormatModel getFormatModel() {
+		return field.getFormatModel();
+	}
+	
+	/**
+	 * The engine behind this picker, its value and settings are managed by the picker and should not be changed directly
+	 */
+	public DateField getDateField() {
+		return field;
+	}
+	
+	int fieldToCalendarField(int index) {
+		return field.getFormatModel() == null ? -1 : field.getFormatModel().getCalendarField(index);
 	}
 	
 	void incrementCalendarField(int calendarField, int amount, boolean roll) {
 		if (calendarField >= 0) {
-			Calendar calendar = getCalendar();
+			Calendar calendar = getWorkingCalendar();
 			if (roll)
 				calendar.roll(calendarField, amount);
-			else
-				calendar.add(calendarField, amount);
+			// the popup buttons lead to a month or year that has accepted days, make sure one of them is selected
+			else if (!field.step(calendar, calendarField, amount))
+				return;
 			setCalendar(calendar);
 		}
 	}
 	
 	int getFieldIndex(String characters) {
-		for (int i = 0; i < fields.size(); i++) {
-			if (fields.get(i).matches("[" + characters + "]+"))
-				return i;
+		return field.getFormatModel() == null ? -1 : field.getFormatModel().getFieldIndex(characters);
+	}
+	
+	/**
+	 * A wrapper that can postpone its notifications until related values have been written as well
+	 */
+	private static class HeldLongWrapper extends ReadOnlyLongWrapper {
+		private boolean held, changed;
+		
+		public HeldLongWrapper(Object bean, String name) {
+			super(bean, name);
+		}
+		
+		public void hold() {
+			held = true;
+		}
+		
+		/**
+		 * Notifies the listeners if the value changed while it was held or if forced, returns whether it did
+		 */
+		public boolean release(boolean force) {
+			held = false;
+			if (!changed && !force)
+				return false;
+			changed = false;
+			fireValueChangedEvent();
+			return true;
+		}
+		
+		@Override
+		protected void fireValueChangedEvent() {
+			if (held)
+				changed = true;
+			else
+				super.fireValueChangedEvent();
+		}
+	}
+	
+	private static class HeldBooleanWrapper extends ReadOnlyBooleanWrapper {
+		private boolean held, changed;
+		
+		public HeldBooleanWrapper(Object bean, String name, boolean value) {
+			super(bean, name, value);
+		}
+		
+		public void hold() {
+			held = true;
+		}
+		
+		public boolean release(boolean force) {
+			held = false;
+			if (!changed && !force)
+				return false;
+			changed = false;
+			fireValueChangedEvent();
+			return true;
+		}
+		
+		@Override
+		protected void fireValueChangedEvent() {
+			if (held)
+				changed = true;
+			else
+				super.fireValueChangedEvent();
 		}
-		return -1;
 	}
 }
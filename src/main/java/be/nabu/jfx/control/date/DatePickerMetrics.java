@@ -0,0 +1,260 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the work done by one or more pickers, a picker creates its own instance once metrics are enabled and all of them add to the global one
+ * Pickers on the same screen can share an instance which can be registered with jmx under the name of the screen
+ *
+ * Nothing is recorded unless the metrics are enabled, either with {@link #setEnabled(boolean)} or the system property {@link #PROPERTY}
+ */
+public class DatePickerMetrics implements DatePickerMetricsMBean {
+
+	public static final String PROPERTY = "be.nabu.jfx.control.date.metrics";
+
+	/**
+	 * The things that are counted, the expensive ones are timed as well
+	 */
+	public static final int PARSES = 0, FORMATS = 1, FILTER_CALLS = 2, DAY_GRID_BUILDS = 3, POPUP_BUILDS = 4, NODES_CREATED = 5, TIMESTAMP_CHANGES = 6;
+
+	private static final String [] NAMES = new String [] { "parses", "formats", "filterCalls", "dayGridBuilds", "popupBuilds", "nodesCreated", "timestampChanges" };
+
+	private static final String DOMAIN = "be.nabu.jfx.control.date";
+
+	private static volatile boolean enabled;
+
+	private static DatePickerMetrics global = new DatePickerMetrics(null);
+
+	private static boolean globalRegistered;
+
+	private DatePickerMetrics parent;
+
+	private LongAdder [] counts = new LongAdder[NAMES.length];
+
+	private LongAdder [] nanos = new LongAdder[NAMES.length];
+
+	private ObjectName name;
+
+	static {
+		if (Boolean.getBoolean(PROPERTY))
+			setGlobalEnabled(true);
+	}
+
+	public DatePickerMetrics() {
+		this(global);
+	}
+
+	private DatePickerMetrics(DatePickerMetrics parent) {
+		this.parent = parent;
+		for (int i = 0; i < NAMES.length; i++) {
+			counts[i] = new LongAdder();
+			nanos[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * The totals of all the pickers
+	 */
+	public static DatePickerMetrics getGlobal() {
+		return global;
+	}
+
+	public static boolean isGlobalEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns recording on or off for all the pickers, the first time it is turned on the global metrics are registered with the platform mbean server
+	 */
+	public static synchronized void setGlobalEnabled(boolean enabled) {
+		DatePickerMetrics.enabled = enabled;
+		if (enabled && !globalRegistered) {
+			global.registerAs(DOMAIN + ":type=DatePickerMetrics");
+			globalRegistered = true;
+		}
+	}
+
+	/**
+	 * Registers these metrics with the platform mbean server under the given name, e.g. the name of the screen the pickers are on
+	 */
+	public void register(String name) {
+		registerAs(DOMAIN + ":type=DatePickerMetrics,name=" + ObjectName.quote(name));
+	}
+
+	private void registerAs(String name) {
+		try {
+			unregister();
+			this.name = new ObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, this.name);
+		}
+		catch (JMException e) {
+			this.name = null;
+			throw new IllegalStateException("Could not register the metrics as " + name, e);
+		}
+	}
+
+	public void unregister() {
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			catch (JMException e) {
+				// already gone
+			}
+			name = null;
+		}
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Recording can not be switched per instance, this switches it for all the pickers
+	 */
+	@Override
+	public void setEnabled(boolean enabled) {
+		setGlobalEnabled(enabled);
+	}
+
+	public long getCount(int metric) {
+		return counts[metric].sum();
+	}
+
+	/**
+	 * The total time spent, this is only tracked for the filter calls and the builds
+	 */
+	public long getNanos(int metric) {
+		return nanos[metric].sum();
+	}
+
+	@Override
+	public long getParses() {
+		return getCount(PARSES);
+	}
+
+	@Override
+	public long getFormats() {
+		return getCount(FORMATS);
+	}
+
+	@Override
+	public long getFilterCalls() {
+		return getCount(FILTER_CALLS);
+	}
+
+	@Override
+	public long getFilterNanos() {
+		return getNanos(FILTER_CALLS);
+	}
+
+	@Override
+	public long getDayGridBuilds() {
+		return getCount(DAY_GRID_BUILDS);
+	}
+
+	@Override
+	public long getDayGridNanos() {
+		return getNanos(DAY_GRID_BUILDS);
+	}
+
+	@Override
+	public long getPopupBuilds() {
+		return getCount(POPUP_BUILDS);
+	}
+
+	@Override
+	public long getPopupBuildNanos() {
+		return getNanos(POPUP_BUILDS);
+	}
+
+	@Override
+	public long getNodesCreated() {
+		return getCount(NODES_CREATED);
+	}
+
+	@Override
+	public long getTimestampChanges() {
+		return getCount(TIMESTAMP_CHANGES);
+	}
+
+	/**
+	 * Resets these metrics, the global ones are not affected
+	 */
+	@Override
+	public void reset() {
+		for (int i = 0; i < NAMES.length; i++) {
+			counts[i].reset();
+			nanos[i].reset();
+		}
+	}
+
+	void increment(int metric) {
+		add(metric, 1);
+	}
+
+	void add(int metric, long amount) {
+		if (enabled) {
+			counts[metric].add(amount);
+			if (parent != null)
+				parent.counts[metric].add(amount);
+		}
+	}
+
+	/**
+	 * Returns the start of a timing or 0 if nothing is being recorded
+	 */
+	long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Counts the metric and adds the time since the given start
+	 */
+	void stop(int metric, long start) {
+		if (start != 0) {
+			long elapsed = System.nanoTime() - start;
+			counts[metric].increment();
+			nanos[metric].add(elapsed);
+			if (parent != null) {
+				parent.counts[metric].increment();
+				parent.nanos[metric].add(elapsed);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < NAMES.length; i++) {
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append(NAMES[i]).append("=").append(getCount(i));
+			if (getNanos(i) > 0)
+				builder.append(" (").append(getNanos(i) / 1000).append("us)");
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,37 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+/**
+ * The management interface of {@link DatePickerMetrics}, all timings are in nanoseconds
+ */
+public interface DatePickerMetricsMBean {
+	public boolean isEnabled();
+	public void setEnabled(boolean enabled);
+	public long getParses();
+	public long getFormats();
+	public long getFilterCalls();
+	public long getFilterNanos();
+	public long getDayGridBuilds();
+	public long getDayGridNanos();
+	public long getPopupBuilds();
+	public long getPopupBuildNanos();
+	public long getNodesCreated();
+	public long getTimestampChanges();
+	public void reset();
+}
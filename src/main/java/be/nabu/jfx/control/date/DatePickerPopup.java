@@ -0,0 +1,199 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.event.EventHandler;
+import javafx.geometry.Side;
+import javafx.scene.Parent;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.CustomMenuItem;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.stage.Window;
+import javafx.stage.WindowEvent;
+
+/**
+ * The context menu that hosts the popup calendar
+ * It is bound to one picker at a time, a single instance can be shared by all the pickers in a window
+ */
+class DatePickerPopup {
+
+	private static final String SHARED_POPUP = DatePickerPopup.class.getName();
+
+	private ContextMenu contextMenu;
+
+	private CustomMenuItem menuItem;
+
+	private PopupCalendar popupCalendar = new PopupCalendar();
+
+	private DatePicker datePicker;
+
+	/**
+	 * Whether the content must be rebuilt before it is shown
+	 */
+	private boolean invalid = true;
+
+	/**
+	 * Returns the popup shared by all pickers in the given window, it is created on first use
+	 */
+	static DatePickerPopup getShared(Window window) {
+		DatePickerPopup popup = findShared(window);
+		if (popup == null) {
+			popup = new DatePickerPopup();
+			window.getProperties().put(SHARED_POPUP, popup);
+		}
+		return popup;
+	}
+
+	/**
+	 * Returns the popup shared by the pickers in the given window or null if none was created
+	 */
+	static DatePickerPopup findShared(Window window) {
+		return (DatePickerPopup) window.getProperties().get(SHARED_POPUP);
+	}
+
+	DatePickerPopup() {
+		menuItem = new CustomMenuItem();
+		menuItem.setHideOnClick(false);
+		menuItem.getStyleClass().add("nabu-date-picker-popup");
+		contextMenu = new ContextMenu();
+		// the key handler of whichever picker the popup is bound to
+		contextMenu.addEventFilter(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
+			@Override
+			public void handle(KeyEvent event) {
+				if (datePicker != null)
+					datePicker.getKeyHandler().handle(event);
+			}
+		});
+		contextMenu.getStyleClass().add("nabu-date-picker-popup");
+		// this prevents context menu from closing when you click on the text field (allowing you for example to select parts)
+		contextMenu.addEventFilter(MouseEvent.MOUSE_PRESSED, new EventHandler<MouseEvent>() {
+			@Override
+			public void handle(MouseEvent event) {
+				event.consume();
+			}
+		});
+		// this prevents the context menu from gaining focus when you move over the text field
+		contextMenu.addEventFilter(MouseEvent.MOUSE_MOVED, new EventHandler<MouseEvent>() {
+			@Override
+			public void handle(MouseEvent event) {
+				if (menuItem.getContent() != null)
+					menuItem.getContent().requestFocus();
+				event.consume();
+			}
+		});
+		contextMenu.focusedProperty().addListener(new ChangeListener<Boolean>() {
+			@Override
+			public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean arg2) {
+				if (arg2 != null && arg2 && menuItem.getContent() != null) {
+					menuItem.getContent().requestFocus();
+				}
+			}
+		});
+		// closing the popup means the user is done picking a value
+		contextMenu.addEventHandler(WindowEvent.WINDOW_HIDDEN, new EventHandler<WindowEvent>() {
+			@Override
+			public void handle(WindowEvent event) {
+				if (datePicker != null)
+					datePicker.commit();
+			}
+		});
+		contextMenu.getItems().add(menuItem);
+	}
+
+	/**
+	 * Binds the popup to the given picker, the calendar nodes are reused where the layout allows it
+	 */
+	void bind(DatePicker datePicker) {
+		if (invalid || this.datePicker != datePicker) {
+			if (this.datePicker != datePicker && contextMenu.isShowing())
+				contextMenu.hide();
+			this.datePicker = datePicker;
+			popupCalendar.bind(datePicker);
+			build();
+		}
+	}
+
+	void show(DatePicker datePicker) {
+		bind(datePicker);
+		contextMenu.show(datePicker, Side.BOTTOM, 0, 0);
+	}
+
+	/**
+	 * Only hides the popup if it is currently bound to the given picker
+	 */
+	void hide(DatePicker datePicker) {
+		if (this.datePicker == datePicker)
+			contextMenu.hide();
+	}
+
+	/**
+	 * The popup is rebuilt immediately if it is visible, otherwise this is postponed until it is shown again
+	 */
+	void invalidate(DatePicker datePicker) {
+		if (this.datePicker == datePicker) {
+			invalid = true;
+			if (contextMenu.isShowing())
+				build();
+		}
+	}
+
+	/**
+	 * Unbinds the popup if it is bound to the given picker so the popup no longer keeps it alive
+	 */
+	void release(DatePicker datePicker) {
+		if (this.datePicker == datePicker) {
+			contextMenu.hide();
+			this.datePicker = null;
+			popupCalendar.bind(null);
+			invalid = true;
+		}
+	}
+	
+	/**
+	 * Unbinds the popup and drops its content, it can still be shown again afterwards
+	 */
+	void dispose() {
+		if (datePicker != null)
+			release(datePicker);
+		popupCalendar.dispose();
+		menuItem.setContent(null);
+	}
+	
+	boolean isShowing(DatePicker datePicker) {
+		return this.datePicker == datePicker && contextMenu.isShowing();
+	}
+
+	boolean isBoundTo(DatePicker datePicker) {
+		return this.datePicker == datePicker;
+	}
+
+	ContextMenu getContextMenu() {
+		return contextMenu;
+	}
+
+	private void build() {
+		invalid = false;
+		final Parent popup = popupCalendar.build();
+		if (menuItem.getContent() != popup)
+			menuItem.setContent(popup);
+		popup.requestFocus();
+	}
+}
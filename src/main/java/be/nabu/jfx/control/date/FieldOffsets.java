@@ -0,0 +1,127 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+/**
+ * The positions of the editable (numeric) ranges in a formatted value
+ * The table is rebuilt once per text change, afterwards all lookups are simple index operations
+ * The arrays are reused as long as they are large enough so rebuilding does not allocate either
+ */
+class FieldOffsets {
+
+	private int [] starts = new int[8], ends = new int[8];
+
+	/**
+	 * For each character the index of the range it belongs to or -1
+	 */
+	private int [] ranges = new int[32];
+
+	private int count, length;
+
+	public void update(String text) {
+		count = 0;
+		length = text == null ? 0 : text.length();
+		if (ranges.length < length)
+			ranges = new int[Math.max(length, ranges.length * 2)];
+		boolean inRange = false;
+		for (int i = 0; i < length; i++) {
+			if (isValidValueChar(text.charAt(i))) {
+				if (!inRange) {
+					if (count == starts.length) {
+						int [] newStarts = new int[count * 2];
+						int [] newEnds = new int[count * 2];
+						System.arraycopy(starts, 0, newStarts, 0, count);
+						System.arraycopy(ends, 0, newEnds, 0, count);
+						starts = newStarts;
+						ends = newEnds;
+					}
+					starts[count++] = i;
+					inRange = true;
+				}
+				ends[count - 1] = i;
+				ranges[i] = count - 1;
+			}
+			else {
+				inRange = false;
+				ranges[i] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Follows the regex \d convention
+	 */
+	static boolean isValidValueChar(int charCode) {
+		return charCode >= 48 && charCode <= 57;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * The first position of the range
+	 */
+	public int getStart(int range) {
+		return starts[range];
+	}
+
+	/**
+	 * The last position of the range (inclusive)
+	 */
+	public int getEnd(int range) {
+		return ends[range];
+	}
+
+	/**
+	 * The range at the given position or -1 if there is none, positions past the end are treated as the last character
+	 */
+	public int getRange(int position) {
+		if (position >= length)
+			position = length - 1;
+		return position < 0 ? -1 : ranges[position];
+	}
+
+	/**
+	 * The first range after the one at the given position or -1 if there is none
+	 */
+	public int getNext(int position) {
+		int range = getRange(position);
+		if (range >= 0)
+			return range + 1 < count ? range + 1 : -1;
+		for (int i = 0; i < count; i++) {
+			if (starts[i] > position)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * The last range before the one at the given position or -1 if there is none
+	 */
+	public int getPrevious(int position) {
+		int range = getRange(position);
+		if (range >= 0)
+			return range - 1;
+		for (int i = count - 1; i >= 0; i--) {
+			if (ends[i] < position)
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,352 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable, parsed representation of a SimpleDateFormat pattern
+ * The pattern is only parsed once, instances are cached per pattern string so they can be shared by all pickers
+ */
+public class FormatModel {
+
+	/**
+	 * These pattern letters can not be edited in a meaningful way and are rejected
+	 */
+	private static final String UNSUPPORTED = "GWwFzZ";
+
+	private static Map<String, FormatModel> models = new ConcurrentHashMap<String, FormatModel>();
+
+	private String pattern;
+
+	private List<Token> tokens;
+
+	/**
+	 * Only the non-literal tokens, in order of appearance
+	 */
+	private Token [] fields;
+
+	/**
+	 * The field indexes of the numeric fields, these are the ones that show up as digits in the formatted value
+	 */
+	private int [] numericFields;
+
+	public static FormatModel getInstance(String pattern) {
+		FormatModel model = models.get(pattern);
+		if (model == null) {
+			model = new FormatModel(pattern);
+			FormatModel existing = models.putIfAbsent(pattern, model);
+			if (existing != null)
+				model = existing;
+		}
+		return model;
+	}
+
+	private FormatModel(String pattern) {
+		this.pattern = pattern;
+		List<Token> tokens = new ArrayList<Token>();
+		List<Token> fields = new ArrayList<Token>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < pattern.length()) {
+			char character = pattern.charAt(i);
+			if (character == '\'') {
+				// two quotes is an escaped quote
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+					literal.append('\'');
+					i += 2;
+				}
+				else {
+					int end = i + 1;
+					while (end < pattern.length()) {
+						if (pattern.charAt(end) == '\'') {
+							if (end + 1 < pattern.length() && pattern.charAt(end + 1) == '\'') {
+								literal.append('\'');
+								end += 2;
+								continue;
+							}
+							break;
+						}
+						literal.append(pattern.charAt(end++));
+					}
+					if (end >= pattern.length())
+						throw new IllegalArgumentException("Unterminated quote in the format " + pattern);
+					i = end + 1;
+				}
+			}
+			else if ((character >= 'a' && character <= 'z') || (character >= 'A' && character <= 'Z')) {
+				if (UNSUPPORTED.indexOf(character) >= 0)
+					throw new IllegalArgumentException("The formatted string " + character + " is not supported");
+				if (literal.length() > 0) {
+					tokens.add(new Token(literal.toString()));
+					literal.setLength(0);
+				}
+				int end = i;
+				while (end < pattern.length() && pattern.charAt(end) == character)
+					end++;
+				Token token = new Token(character, end - i, fields.size());
+				tokens.add(token);
+				fields.add(token);
+				i = end;
+			}
+			else {
+				literal.append(character);
+				i++;
+			}
+		}
+		if (literal.length() > 0)
+			tokens.add(new Token(literal.toString()));
+		this.tokens = Collections.unmodifiableList(tokens);
+		this.fields = fields.toArray(new Token[fields.size()]);
+		int numeric = 0;
+		for (Token field : this.fields) {
+			if (field.isNumeric())
+				numeric++;
+		}
+		this.numericFields = new int[numeric];
+		numeric = 0;
+		for (Token field : this.fields) {
+			if (field.isNumeric())
+				numericFields[numeric++] = field.getIndex();
+		}
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public List<Token> getTokens() {
+		return tokens;
+	}
+
+	public int getFieldCount() {
+		return fields.length;
+	}
+
+	public Token getField(int field) {
+		return field >= 0 && field < fields.length ? fields[field] : null;
+	}
+
+	/**
+	 * Returns the calendar field for the given field index or -1 if there is none
+	 */
+	public int getCalendarField(int field) {
+		return field >= 0 && field < fields.length ? fields[field].getCalendarField() : -1;
+	}
+
+	public int getNumericFieldCount() {
+		return numericFields.length;
+	}
+
+	/**
+	 * Returns the field index of the nth numeric field or -1 if there is none
+	 */
+	public int getNumericField(int numericIndex) {
+		return numericIndex >= 0 && numericIndex < numericFields.length ? numericFields[numericIndex] : -1;
+	}
+
+	/**
+	 * Returns the index of the first field that uses one of the given pattern letters or -1 if there is none
+	 */
+	public int getFieldIndex(String characters) {
+		for (int i = 0; i < fields.length; i++) {
+			if (characters.indexOf(fields[i].getSymbol()) >= 0)
+				return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return pattern;
+	}
+
+	public static class Token {
+
+		private char symbol;
+		private int width, calendarField, index;
+		private String literal;
+
+		Token(String literal) {
+			this.literal = literal;
+			this.calendarField = -1;
+			this.index = -1;
+		}
+
+		Token(char symbol, int width, int index) {
+			this.symbol = symbol;
+			this.width = width;
+			this.index = index;
+			this.calendarField = toCalendarField(symbol);
+		}
+
+		/**
+		 * The pattern letter, this is 0 for literals
+		 */
+		public char getSymbol() {
+			return symbol;
+		}
+
+		/**
+		 * The amount of times the pattern letter is repeated
+		 */
+		public int getWidth() {
+			return width;
+		}
+
+		public int getCalendarField() {
+			return calendarField;
+		}
+
+		/**
+		 * The index of this token amongst the fields, this is -1 for literals
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public String getLiteral() {
+			return literal;
+		}
+
+		public boolean isLiteral() {
+			return literal != null;
+		}
+
+		/**
+		 * Text fields (e.g. the name of the day) do not show up as numbers in the formatted value
+		 */
+		public boolean isText() {
+			return !isLiteral() && (symbol == 'E' || symbol == 'a' || ((symbol == 'M' || symbol == 'L') && width >= 3));
+		}
+
+		public boolean isNumeric() {
+			return !isLiteral() && !isText();
+		}
+
+		/**
+		 * The lowest value a numeric field can have or -1 if the field can not be validated on its own
+		 */
+		public int getMinimum() {
+			switch(isNumeric() ? symbol : 0) {
+				case 'y':
+					// two digit years are resolved relative to the current century by the parser
+					return width == 2 ? -1 : 1;
+				case 'M':
+				case 'L':
+				case 'd':
+				case 'D':
+				case 'k':
+				case 'h': return 1;
+				case 'H':
+				case 'K':
+				case 'm':
+				case 's':
+				case 'S': return 0;
+				default: return -1;
+			}
+		}
+
+		/**
+		 * The highest value a numeric field can have or -1 if the field can not be validated on its own
+		 */
+		public int getMaximum() {
+			switch(getMinimum() < 0 ? 0 : symbol) {
+				case 'y': return 9999;
+				case 'M':
+				case 'L':
+				case 'h': return 12;
+				case 'd': return 31;
+				case 'D': return 366;
+				case 'H': return 23;
+				case 'k': return 24;
+				case 'K': return 11;
+				case 'm':
+				case 's': return 59;
+				case 'S': return 999;
+				default: return -1;
+			}
+		}
+
+		/**
+		 * The amount of digits after which the field is considered complete
+		 */
+		public int getMaxDigits() {
+			int maximum = getMaximum();
+			return Math.max(width, maximum < 0 ? 0 : Integer.toString(maximum).length());
+		}
+
+		/**
+		 * Sets the field to the given value as it would appear in the formatted string
+		 */
+		public void apply(Calendar calendar, int value) {
+			switch(getMinimum() < 0 ? 0 : symbol) {
+				case 'M':
+				case 'L': calendar.set(Calendar.MONTH, value - 1); break;
+				case 'D': calendar.set(Calendar.DAY_OF_YEAR, value); break;
+				case 'h': calendar.set(Calendar.HOUR, value % 12); break;
+				case 'K': calendar.set(Calendar.HOUR, value); break;
+				case 'k': calendar.set(Calendar.HOUR_OF_DAY, value % 24); break;
+				case 'y':
+				case 'd':
+				case 'H':
+				case 'm':
+				case 's':
+				case 'S': calendar.set(calendarField, value); break;
+				default: throw new IllegalArgumentException("The field " + this + " can not be set directly");
+			}
+		}
+
+		@Override
+		public String toString() {
+			if (isLiteral())
+				return literal;
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < width; i++)
+				builder.append(symbol);
+			return builder.toString();
+		}
+
+		private static int toCalendarField(char symbol) {
+			switch(symbol) {
+				case 'm': return Calendar.MINUTE;
+				case 's': return Calendar.SECOND;
+				case 'H':
+				case 'k':
+				case 'K':
+				case 'h': return Calendar.HOUR_OF_DAY;
+				case 'D': return Calendar.DATE;
+				case 'd': return Calendar.DAY_OF_MONTH;
+				case 'F': return Calendar.DAY_OF_WEEK_IN_MONTH;
+				case 'E': return Calendar.DAY_OF_WEEK;
+				case 'M': return Calendar.MONTH;
+				case 'y': return Calendar.YEAR;
+				case 'S': return Calendar.MILLISECOND;
+				case 'w': return Calendar.WEEK_OF_YEAR;
+				case 'W': return Calendar.WEEK_OF_MONTH;
+				case 'a': return Calendar.AM_PM;
+				default: return -1;
+			}
+		}
+	}
+}
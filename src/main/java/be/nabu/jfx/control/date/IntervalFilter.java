@@ -0,0 +1,236 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Accepts the dates that fall within a set of intervals
+ * The intervals are kept sorted and disjoint so a lookup is a binary search, regardless of how the filter was composed
+ * The intervals are half-open: the start is accepted, the end is not
+ */
+public class IntervalFilter implements TimeSensitiveFilter {
+
+	public static final IntervalFilter ALL = new IntervalFilter(new long [] { Long.MIN_VALUE }, new long [] { Long.MAX_VALUE });
+
+	public static final IntervalFilter NONE = new IntervalFilter(new long[0], new long[0]);
+
+	private long [] starts, ends;
+
+	private IntervalFilter(long [] starts, long [] ends) {
+		this.starts = starts;
+		this.ends = ends;
+	}
+
+	/**
+	 * Creates a filter for the given intervals, they may overlap and do not need to be sorted
+	 */
+	public static IntervalFilter of(long [] starts, long [] ends) {
+		if (starts.length != ends.length)
+			throw new IllegalArgumentException("The amount of starts and ends does not match");
+		Integer [] order = new Integer[starts.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		final long [] unsorted = starts;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Long.compare(unsorted[first], unsorted[second]);
+			}
+		});
+		long [] sortedStarts = new long[starts.length];
+		long [] sortedEnds = new long[ends.length];
+		int count = 0;
+		for (int index : order) {
+			// empty intervals are dropped
+			if (ends[index] <= starts[index])
+				continue;
+			// merge with the previous interval if they overlap or touch
+			if (count > 0 && starts[index] <= sortedEnds[count - 1])
+				sortedEnds[count - 1] = Math.max(sortedEnds[count - 1], ends[index]);
+			else {
+				sortedStarts[count] = starts[index];
+				sortedEnds[count++] = ends[index];
+			}
+		}
+		return new IntervalFilter(Arrays.copyOf(sortedStarts, count), Arrays.copyOf(sortedEnds, count));
+	}
+
+	/**
+	 * Accepts everything from the start (inclusive) until the end (exclusive)
+	 */
+	public static IntervalFilter between(Date start, Date end) {
+		return of(new long [] { start.getTime() }, new long [] { end.getTime() });
+	}
+
+	/**
+	 * Accepts everything from the given date onwards
+	 */
+	public static IntervalFilter from(Date start) {
+		return of(new long [] { start.getTime() }, new long [] { Long.MAX_VALUE });
+	}
+
+	/**
+	 * Accepts everything before the given date
+	 */
+	public static IntervalFilter until(Date end) {
+		return of(new long [] { Long.MIN_VALUE }, new long [] { end.getTime() });
+	}
+
+	/**
+	 * Accepts the whole day of each of the given dates in the given timezone, this can be used for explicit date sets like holidays
+	 */
+	public static IntervalFilter days(TimeZone timezone, Date...dates) {
+		long [] starts = new long[dates.length];
+		long [] ends = new long[dates.length];
+		Calendar calendar = Calendar.getInstance(timezone);
+		for (int i = 0; i < dates.length; i++) {
+			calendar.setTime(dates[i]);
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			starts[i] = calendar.getTimeInMillis();
+			// not necessarily 24 hours because of daylight savings
+			calendar.add(Calendar.DATE, 1);
+			ends[i] = calendar.getTimeInMillis();
+		}
+		return of(starts, ends);
+	}
+
+	@Override
+	public boolean accept(Date date) {
+		return accept(date.getTime());
+	}
+
+	public boolean accept(long epochMillis) {
+		int index = Arrays.binarySearch(starts, epochMillis);
+		if (index >= 0)
+			return true;
+		// the interval that starts before the timestamp (if any)
+		index = -index - 2;
+		return index >= 0 && (epochMillis < ends[index] || ends[index] == Long.MAX_VALUE);
+	}
+
+	/**
+	 * Checks the days without creating a date for each of them
+	 */
+	@Override
+	public long acceptDays(Calendar start, int days) {
+		if (days < 0 || days > 64)
+			throw new IllegalArgumentException("Can only check up to 64 days at once: " + days);
+		Calendar calendar = (Calendar) start.clone();
+		long accepted = 0;
+		for (int i = 0; i < days; i++) {
+			if (i > 0)
+				calendar.add(Calendar.DATE, 1);
+			if (accept(calendar.getTimeInMillis()))
+				accepted |= 1L << i;
+		}
+		return accepted;
+	}
+
+	public IntervalFilter union(IntervalFilter other) {
+		long [] starts = Arrays.copyOf(this.starts, this.starts.length + other.starts.length);
+		long [] ends = Arrays.copyOf(this.ends, this.ends.length + other.ends.length);
+		System.arraycopy(other.starts, 0, starts, this.starts.length, other.starts.length);
+		System.arraycopy(other.ends, 0, ends, this.ends.length, other.ends.length);
+		return of(starts, ends);
+	}
+
+	public IntervalFilter intersect(IntervalFilter other) {
+		long [] starts = new long[this.starts.length + other.starts.length];
+		long [] ends = new long[starts.length];
+		int count = 0, i = 0, j = 0;
+		while (i < this.starts.length && j < other.starts.length) {
+			long start = Math.max(this.starts[i], other.starts[j]);
+			long end = Math.min(this.ends[i], other.ends[j]);
+			if (start < end) {
+				starts[count] = start;
+				ends[count++] = end;
+			}
+			// move on from whichever interval ends first
+			if (this.ends[i] < other.ends[j])
+				i++;
+			else
+				j++;
+		}
+		return new IntervalFilter(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+	}
+
+	public IntervalFilter complement() {
+		long [] starts = new long[this.starts.length + 1];
+		long [] ends = new long[starts.length];
+		int count = 0;
+		long previous = Long.MIN_VALUE;
+		for (int i = 0; i < this.starts.length; i++) {
+			if (this.starts[i] > previous) {
+				starts[count] = previous;
+				ends[count++] = this.starts[i];
+			}
+			previous = this.ends[i];
+		}
+		if (previous != Long.MAX_VALUE) {
+			starts[count] = previous;
+			ends[count++] = Long.MAX_VALUE;
+		}
+		return new IntervalFilter(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+	}
+
+	/**
+	 * A day can be cut in two by any boundary that is not open-ended
+	 */
+	@Override
+	public boolean isTimeSensitive() {
+		for (int i = 0; i < starts.length; i++) {
+			if (starts[i] != Long.MIN_VALUE || ends[i] != Long.MAX_VALUE)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The amount of disjoint intervals
+	 */
+	public int size() {
+		return starts.length;
+	}
+
+	public long getStart(int interval) {
+		return starts[interval];
+	}
+
+	public long getEnd(int interval) {
+		return ends[interval];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < starts.length; i++) {
+			if (builder.length() > 0)
+				builder.append(", ");
+			builder.append("[").append(starts[i]).append(", ").append(ends[i]).append(")");
+		}
+		return builder.toString();
+	}
+}
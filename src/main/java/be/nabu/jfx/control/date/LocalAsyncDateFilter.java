@@ -0,0 +1,75 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs a regular filter on an executor, this can stand in for a remote filter during development and testing
+ */
+public class LocalAsyncDateFilter implements AsyncDateFilter {
+
+	private volatile DateFilter filter;
+	
+	private Executor executor;
+	
+	private AtomicLong version = new AtomicLong();
+	
+	public LocalAsyncDateFilter(DateFilter filter) {
+		this(filter, ForkJoinPool.commonPool());
+	}
+	
+	public LocalAsyncDateFilter(DateFilter filter, Executor executor) {
+		this.filter = filter;
+		this.executor = executor;
+	}
+	
+	@Override
+	public CompletableFuture<Long> requestDays(final Calendar start, final int days) {
+		// the answer belongs to the filter at the time of the request
+		final DateFilter filter = this.filter;
+		return CompletableFuture.supplyAsync(new Supplier<Long>() {
+			@Override
+			public Long get() {
+				return filter.acceptDays(start, days);
+			}
+		}, executor);
+	}
+
+	@Override
+	public long getVersion() {
+		return version.get();
+	}
+	
+	/**
+	 * Replaces the filter, answers for the previous filter are discarded
+	 */
+	public void setFilter(DateFilter filter) {
+		this.filter = filter;
+		version.incrementAndGet();
+	}
+	
+	public DateFilter getFilter() {
+		return filter;
+	}
+}
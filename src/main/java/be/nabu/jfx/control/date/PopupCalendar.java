@@ -17,13 +17,20 @@
 
 package be.nabu.jfx.control.date;
 
+import java.text.DateFormatSymbols;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.WeakInvalidationListener;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
 import javafx.geometry.HPos;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -35,91 +42,196 @@ import javafx.scene.layout.VBox;
 
 public class PopupCalendar {
 	
+	private static final int YEAR = 1, MONTH = 2, DAY = 4, HOUR = 8, MINUTE = 16, SECOND = 32, MILLISECOND = 64;
+	
 	private DatePicker datePicker;
 	
+	/**
+	 * The parts that are present in the currently built nodes, if a new picker needs the same parts the nodes are reused
+	 */
+	private int layout = -1;
+	
+	private Parent content;
+	
 	private GridPane dayGrid;
 	
-	private Label lblMonth, lblYear;
+	/**
+	 * The cells of the day grid are created once: a header row with the weekdays and at most 6 weeks
+	 */
+	private Label [] lblWeekdays;
+	private Button [] btnDays;
 	
-	private Slider sldHour, sldMinute, sldSecond, sldMillisecond;
+	/**
+	 * What is currently shown in the day grid, this allows us to skip the parts that have not changed
+	 */
+	private int gridYear, gridMonth = -1, gridDay, gridFirstDayOfWeek;
+	private Locale gridLocale;
+	private TimeZone gridTimezone;
+	private DateFilter gridFilter;
 	
-	private Button btnPreviousYear, btnNextYear, btnPreviousMonth, btnNextMonth;
+	private static final String [] DAYS = new String[32];
+	static {
+		for (int i = 1; i < DAYS.length; i++)
+			DAYS[i] = (i < 10 ? "0" : "") + i;
+	}
 	
-	private ChangeListener<Long> monthListener = new ChangeListener<Long>() {
+	private EventHandler<MouseEvent> dayHandler = new EventHandler<MouseEvent>() {
 		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildMonthLabel();
+		public void handle(MouseEvent event) {
+			int day = (Integer) ((Button) event.getSource()).getUserData();
+			Calendar calendar = datePicker.getWorkingCalendar();
+			calendar.set(Calendar.DAY_OF_MONTH, day);
+			datePicker.setCalendar(calendar);
 		}
 	};
 	
-	private ChangeListener<Long> yearListener = new ChangeListener<Long>() {
-		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildYearLabel();
-		}
-	};
+	private Label lblMonth, lblYear;
 	
-	private ChangeListener<Long> dayListener = new ChangeListener<Long>() {
-		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildDayGrid();
-		}
-	};
+	private Slider sldHour, sldMinute, sldSecond, sldMillisecond;
 	
-	private ChangeListener<Long> hourListener = new ChangeListener<Long>() {
-		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildHourSlider();
-		}
-	};
+	private Button btnPreviousYear, btnNextYear, btnPreviousMonth, btnNextMonth;
+	
+	/**
+	 * Bit used next to the calendar fields to indicate that the filter has changed
+	 */
+	private static final int FILTER = 1 << 30;
+	
+	/**
+	 * The calendar fields are computed once per change, each part is only updated if a field it shows has changed
+	 */
+	private CalendarFields fields = new CalendarFields();
 	
-	private ChangeListener<Long> minuteListener = new ChangeListener<Long>() {
+	/**
+	 * Listens to the primitive value so no boxing occurs, going from or to an empty value may trigger it twice but the second time nothing has changed
+	 */
+	private InvalidationListener timestampListener = new InvalidationListener() {
 		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildMinuteSlider();
+		public void invalidated(Observable observable) {
+			update(fields.update(datePicker.isEmpty(), datePicker.getEpochMillis(), datePicker.timezoneProperty().getValue(), datePicker.localeProperty().getValue()));
 		}
 	};
-	private ChangeListener<Long> secondListener = new ChangeListener<Long>() {
+
+	private ChangeListener<DateFilter> filterListener = new ChangeListener<DateFilter>() {
 		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildSecondSlider();
+		public void changed(ObservableValue<? extends DateFilter> arg0, DateFilter arg1, DateFilter arg2) {
+			if (arg1 instanceof Observable)
+				((Observable) arg1).removeListener(weakFilterUpdateListener);
+			if (arg2 instanceof Observable)
+				((Observable) arg2).addListener(weakFilterUpdateListener);
+			update(FILTER);
 		}
 	};
-	private ChangeListener<Long> millisecondListener = new ChangeListener<Long>() {
+	
+	/**
+	 * Filters that can change by themselves (e.g. when asynchronous answers arrive) are observable
+	 */
+	private InvalidationListener filterUpdateListener = new InvalidationListener() {
 		@Override
-		public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-			buildMillisecondSlider();
+		public void invalidated(Observable observable) {
+			update(FILTER);
 		}
 	};
-
+	
+	/**
+	 * Filters are often shared by many pickers and outlive them, they only get a weak reference to the calendar
+	 */
+	private WeakInvalidationListener weakFilterUpdateListener = new WeakInvalidationListener(filterUpdateListener);
+	
+	/**
+	 * The calendar is not bound to a picker, use {@link #bind(DatePicker)} before building it
+	 */
+	public PopupCalendar() {
+		// unbound
+	}
+	
 	public PopupCalendar(DatePicker datePicker) {
-		this.datePicker = datePicker;
-		datePicker.filterProperty().addListener(new ChangeListener<DateFilter>() {
-			@Override
-			public void changed(ObservableValue<? extends DateFilter> arg0, DateFilter arg1, DateFilter arg2) {
-				updateFilters();
+		bind(datePicker);
+	}
+	
+	/**
+	 * Moves the calendar to another picker, the next {@link #build()} reuses the existing nodes if the picker has the same fields
+	 */
+	public void bind(DatePicker datePicker) {
+		if (this.datePicker != datePicker) {
+			if (this.datePicker != null) {
+				this.datePicker.filterProperty().removeListener(filterListener);
+				if (this.datePicker.filterProperty().getValue() instanceof Observable)
+					((Observable) this.datePicker.filterProperty().getValue()).removeListener(weakFilterUpdateListener);
+				this.datePicker.epochMillisProperty().removeListener(timestampListener);
+				this.datePicker.emptyProperty().removeListener(timestampListener);
 			}
-		});
-		datePicker.timestampProperty().addListener(new ChangeListener<Long>() {
-			@Override
-			public void changed(ObservableValue<? extends Long> arg0, Long arg1, Long arg2) {
-				updateFilters();
+			this.datePicker = datePicker;
+			fields.reset();
+			if (datePicker != null) {
+				datePicker.filterProperty().addListener(filterListener);
+				if (datePicker.filterProperty().getValue() instanceof Observable)
+					((Observable) datePicker.filterProperty().getValue()).addListener(weakFilterUpdateListener);
+				datePicker.epochMillisProperty().addListener(timestampListener);
+				datePicker.emptyProperty().addListener(timestampListener);
 			}
-		});
+		}
 	}
 	
-	private void destroy() {
-		datePicker.timestampProperty().removeListener(yearListener);
-		datePicker.timestampProperty().removeListener(monthListener);
-		datePicker.timestampProperty().removeListener(dayListener);
-		datePicker.timestampProperty().removeListener(minuteListener);
-		datePicker.timestampProperty().removeListener(secondListener);
-		datePicker.timestampProperty().removeListener(millisecondListener);
+	public DatePicker getDatePicker() {
+		return datePicker;
+	}
+	
+	/**
+	 * Removes all the listeners from the picker and drops the nodes, the calendar can be bound and built again afterwards
+	 */
+	public void dispose() {
+		bind(null);
+		content = null;
+		layout = -1;
+	}
+	
+	private int getLayout() {
+		int layout = 0;
+		if (datePicker.getFieldIndex("y") >= 0)
+			layout |= YEAR;
+		if (datePicker.getFieldIndex("M") >= 0)
+			layout |= MONTH;
+		if (datePicker.getFieldIndex("dDFE") >= 0)
+			layout |= DAY;
+		if (!datePicker.getHideTimeControls()) {
+			if (datePicker.getFieldIndex("HkKh") >= 0)
+				layout |= HOUR;
+			if (datePicker.getFieldIndex("m") >= 0)
+				layout |= MINUTE;
+			if (datePicker.getFieldIndex("s") >= 0)
+				layout |= SECOND;
+			if (datePicker.getFieldIndex("S") >= 0)
+				layout |= MILLISECOND;
+		}
+		return layout;
 	}
 	
 	public Parent build() {
-		// destroy previous
-		destroy();
+		DatePickerMetrics metrics = datePicker.getRecordingMetrics();
+		long start = metrics.start();
+		int layout = getLayout();
+		// the nodes we have can be reused, we only need to show the values of the current picker
+		if (content != null && layout == this.layout) {
+			refresh();
+			metrics.stop(DatePickerMetrics.POPUP_BUILDS, start);
+			return content;
+		}
+		
+		// drop the previous nodes
+		lblYear = null;
+		lblMonth = null;
+		dayGrid = null;
+		lblWeekdays = null;
+		btnDays = null;
+		sldHour = null;
+		sldMinute = null;
+		sldSecond = null;
+		sldMillisecond = null;
+		btnPreviousYear = null;
+		btnNextYear = null;
+		btnPreviousMonth = null;
+		btnNextMonth = null;
+		this.layout = layout;
 		
 		VBox vbxMain = new VBox();
 		vbxMain.getStyleClass().add("nabu-date-picker-calendar");
@@ -142,25 +254,22 @@ public class PopupCalendar {
 
 		int rowIndex = 0;
 		
-		final int yearField = datePicker.getFieldIndex("y");
 		// if we have years, show them
-		if (yearField >= 0) {
+		if ((layout & YEAR) != 0) {
 			btnPreviousYear = new Button("<");
 			btnPreviousYear.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
 				@Override
 				public void handle(MouseEvent arg0) {
-					datePicker.incrementCalendarField(datePicker.fieldToCalendarField(yearField), -1, false);
+					datePicker.incrementCalendarField(Calendar.YEAR, -1, false);
 				}
 			});
 			lblYear = new Label();
-			datePicker.timestampProperty().addListener(yearListener);
 			lblYear.getStyleClass().add("nabu-date-picker-year");
-			buildYearLabel();
 			btnNextYear = new Button(">");
 			btnNextYear.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
 				@Override
 				public void handle(MouseEvent arg0) {
-					datePicker.incrementCalendarField(datePicker.fieldToCalendarField(yearField), 1, false);
+					datePicker.incrementCalendarField(Calendar.YEAR, 1, false);
 				}
 			});
 			GridPane.setHalignment(btnPreviousYear, HPos.CENTER);
@@ -169,25 +278,22 @@ public class PopupCalendar {
 			dateGrid.addRow(rowIndex++, btnPreviousYear, lblYear, btnNextYear);
 		}
 		
-		final int monthField = datePicker.getFieldIndex("M");
 		// if we have months, show them as well
-		if (monthField >= 0) {
+		if ((layout & MONTH) != 0) {
 			btnPreviousMonth = new Button("<");
 			btnPreviousMonth.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
 				@Override
 				public void handle(MouseEvent arg0) {
-					datePicker.incrementCalendarField(datePicker.fieldToCalendarField(monthField), -1, false);
+					datePicker.incrementCalendarField(Calendar.MONTH, -1, false);
 				}
 			});
 			lblMonth = new Label();
-			datePicker.timestampProperty().addListener(monthListener);
 			lblMonth.getStyleClass().add("nabu-date-picker-month");
-			buildMonthLabel();
 			btnNextMonth = new Button(">");
 			btnNextMonth.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
 				@Override
 				public void handle(MouseEvent arg0) {
-					datePicker.incrementCalendarField(datePicker.fieldToCalendarField(monthField), 1, false);
+					datePicker.incrementCalendarField(Calendar.MONTH, 1, false);
 				}
 			});
 			GridPane.setHalignment(btnPreviousMonth, HPos.CENTER);
@@ -199,17 +305,26 @@ public class PopupCalendar {
 		if (dateGrid.getChildren().size() > 0)
 			vbxMain.getChildren().add(dateGrid);
 		
-		final int dayField = datePicker.getFieldIndex("dDFE");
-		if (dayField >= 0) {
+		if ((layout & DAY) != 0) {
 			dayGrid = new GridPane();
 			dayGrid.getStyleClass().add("nabu-date-picker-day");
-			buildDayGrid();
-			// rebuild on change
-			datePicker.timestampProperty().addListener(dayListener);
+			lblWeekdays = new Label[7];
+			btnDays = new Button[42];
+			for (int column = 0; column < 7; column++) {
+				lblWeekdays[column] = new Label();
+				dayGrid.add(lblWeekdays[column], column, 0);
+			}
+			// the first row is taken up by display names
+			for (int i = 0; i < btnDays.length; i++) {
+				btnDays[i] = new Button();
+				btnDays[i].addEventHandler(MouseEvent.MOUSE_CLICKED, dayHandler);
+				dayGrid.add(btnDays[i], i % 7, 1 + (i / 7));
+			}
+			gridMonth = -1;
 			vbxMain.getChildren().add(dayGrid);
 		}
 
-		if (!datePicker.getHideTimeControls()) {
+		if ((layout & (HOUR | MINUTE | SECOND | MILLISECOND)) != 0) {
 			GridPane timeGrid = new GridPane();
 			
 			ColumnConstraints c1 = new ColumnConstraints();
@@ -225,67 +340,55 @@ public class PopupCalendar {
 	
 			rowIndex = 0;
 	
-			final int hourField = datePicker.getFieldIndex("HkKh");
-			if (hourField >= 0) {
+			if ((layout & HOUR) != 0) {
 				sldHour = new Slider(0, 23, 0);
-				buildHourSlider();
 				sldHour.valueProperty().addListener(new ChangeListener<Number>() {
 					@Override
 					public void changed(ObservableValue<? extends Number> arg0, Number arg1, Number arg2) {
-						Calendar calendar = datePicker.getCalendar();
+						Calendar calendar = datePicker.getWorkingCalendar();
 						calendar.set(Calendar.HOUR_OF_DAY, arg2.intValue());
-						datePicker.setCalendar(calendar);					
+						datePicker.stageCalendar(calendar);
 					}
 				});
-				datePicker.timestampProperty().addListener(hourListener);
 				timeGrid.addRow(rowIndex++, new Label("Hours:"), sldHour);
 			}
 	
-			final int minuteField = datePicker.getFieldIndex("m");
-			if (minuteField >= 0) {
+			if ((layout & MINUTE) != 0) {
 				sldMinute = new Slider(0, 59, 0);
-				buildMinuteSlider();
 				sldMinute.valueProperty().addListener(new ChangeListener<Number>() {
 					@Override
 					public void changed(ObservableValue<? extends Number> arg0, Number arg1, Number arg2) {
-						Calendar calendar = datePicker.getCalendar();
+						Calendar calendar = datePicker.getWorkingCalendar();
 						calendar.set(Calendar.MINUTE, arg2.intValue());
-						datePicker.setCalendar(calendar);					
+						datePicker.stageCalendar(calendar);
 					}
 				});
-				datePicker.timestampProperty().addListener(minuteListener);
 				timeGrid.addRow(rowIndex++, new Label("Minutes:"), sldMinute);
 			}
 			
-			final int secondField = datePicker.getFieldIndex("s");
-			if (secondField >= 0) {
+			if ((layout & SECOND) != 0) {
 				sldSecond = new Slider(0, 59, 0);
-				buildSecondSlider();
 				sldSecond.valueProperty().addListener(new ChangeListener<Number>() {
 					@Override
 					public void changed(ObservableValue<? extends Number> arg0, Number arg1, Number arg2) {
-						Calendar calendar = datePicker.getCalendar();
+						Calendar calendar = datePicker.getWorkingCalendar();
 						calendar.set(Calendar.SECOND, arg2.intValue());
-						datePicker.setCalendar(calendar);					
+						datePicker.stageCalendar(calendar);
 					}
 				});
-				datePicker.timestampProperty().addListener(secondListener);
 				timeGrid.addRow(rowIndex++, new Label("Seconds:"), sldSecond);
 			}
 	
-			final int millisecondField = datePicker.getFieldIndex("S");
-			if (millisecondField >= 0) {
+			if ((layout & MILLISECOND) != 0) {
 				sldMillisecond = new Slider(0, 999, 0);
-				buildMillisecondSlider();
 				sldMillisecond.valueProperty().addListener(new ChangeListener<Number>() {
 					@Override
 					public void changed(ObservableValue<? extends Number> arg0, Number arg1, Number arg2) {
-						Calendar calendar = datePicker.getCalendar();
+						Calendar calendar = datePicker.getWorkingCalendar();
 						calendar.set(Calendar.MILLISECOND, arg2.intValue());
-						datePicker.setCalendar(calendar);					
+						datePicker.stageCalendar(calendar);
 					}
 				});
-				datePicker.timestampProperty().addListener(millisecondListener);
 				timeGrid.addRow(rowIndex++, new Label("Milliseconds:"), sldMillisecond);
 			}
 	
@@ -293,106 +396,232 @@ public class PopupCalendar {
 				vbxMain.getChildren().add(timeGrid);
 		}
 		
-		updateFilters();
-		
+		content = vbxMain;
+		refresh();
+		if (DatePickerMetrics.isGlobalEnabled())
+			metrics.add(DatePickerMetrics.NODES_CREATED, countNodes(vbxMain));
+		metrics.stop(DatePickerMetrics.POPUP_BUILDS, start);
 		return vbxMain;
 	}
 	
-	private void buildHourSlider() {
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null)
-			sldHour.setValue(calendar.get(Calendar.HOUR_OF_DAY));
+	/**
+	 * The nodes in the given tree, the skins of the controls are not created yet at this point
+	 */
+	private static int countNodes(Node node) {
+		int count = 1;
+		if (node instanceof Parent) {
+			for (Node child : ((Parent) node).getChildrenUnmodifiable())
+				count += countNodes(child);
+		}
+		return count;
+	}
+	
+	/**
+	 * Updates the existing nodes with the values of the current picker
+	 */
+	private void refresh() {
+		fields.reset();
+		fields.update(datePicker.isEmpty(), datePicker.getEpochMillis(), datePicker.timezoneProperty().getValue(), datePicker.localeProperty().getValue());
+		update(CalendarFields.ALL | FILTER);
 	}
-	private void buildMinuteSlider() {
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null)
-			sldMinute.setValue(calendar.get(Calendar.MINUTE));
+	
+	/**
+	 * Updates the parts that show one of the changed fields
+	 */
+	private void update(int changes) {
+		if (changes == 0)
+			return;
+		Calendar calendar = fields.getCalendar();
+		if (calendar == null) {
+			if (dayGrid != null)
+				buildDayGrid(null);
+			return;
+		}
+		DateFilter filter = datePicker.filterProperty().getValue();
+		boolean monthChanged = (changes & FILTER) != 0 || CalendarFields.hasChanged(changes, Calendar.YEAR) || CalendarFields.hasChanged(changes, Calendar.MONTH);
+		// the adjacent months are requested first so they can be computed while the current one is being shown
+		if (monthChanged && filter instanceof PrefetchingDateFilter)
+			prefetch((PrefetchingDateFilter) filter, calendar);
+		// the days are only checked again for a change of the time if the filter can give a different answer at another time of day
+		boolean timeChanged = CalendarFields.hasChanged(changes, Calendar.HOUR_OF_DAY) || CalendarFields.hasChanged(changes, Calendar.MINUTE) || CalendarFields.hasChanged(changes, Calendar.SECOND) || CalendarFields.hasChanged(changes, Calendar.MILLISECOND);
+		boolean filtered = (changes & FILTER) != 0 || (timeChanged && filter instanceof TimeSensitiveFilter && ((TimeSensitiveFilter) filter).isTimeSensitive());
+		if (lblYear != null && CalendarFields.hasChanged(changes, Calendar.YEAR))
+			buildYearLabel(calendar);
+		if (lblMonth != null && CalendarFields.hasChanged(changes, Calendar.MONTH))
+			buildMonthLabel(calendar);
+		if (dayGrid != null && (filtered || CalendarFields.hasChanged(changes, Calendar.YEAR) || CalendarFields.hasChanged(changes, Calendar.MONTH) || CalendarFields.hasChanged(changes, Calendar.DAY_OF_MONTH)))
+			buildDayGrid(calendar);
+		if (sldHour != null && CalendarFields.hasChanged(changes, Calendar.HOUR_OF_DAY))
+			buildHourSlider(calendar);
+		if (sldMinute != null && CalendarFields.hasChanged(changes, Calendar.MINUTE))
+			buildMinuteSlider(calendar);
+		if (sldSecond != null && CalendarFields.hasChanged(changes, Calendar.SECOND))
+			buildSecondSlider(calendar);
+		if (sldMillisecond != null && CalendarFields.hasChanged(changes, Calendar.MILLISECOND))
+			buildMillisecondSlider(calendar);
+		// scanning the adjacent months and years is expensive, it is only redone when another month is shown
+		if (monthChanged)
+			updateFilters(calendar);
 	}
-	private void buildSecondSlider() {
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null)
-			sldSecond.setValue(calendar.get(Calendar.SECOND));
+	
+	/**
+	 * Requests the adjacent months so they are likely known by the time the user navigates to them
+	 */
+	private void prefetch(PrefetchingDateFilter filter, Calendar current) {
+		Calendar calendar = (Calendar) current.clone();
+		calendar.set(Calendar.DAY_OF_MONTH, 1);
+		calendar.add(Calendar.MONTH, -1);
+		filter.prefetch(calendar);
+		calendar.add(Calendar.MONTH, 2);
+		filter.prefetch(calendar);
 	}
-	private void buildMillisecondSlider() {
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null)
-			sldMillisecond.setValue(calendar.get(Calendar.MILLISECOND));
+	
+	private void buildHourSlider(Calendar calendar) {
+		sldHour.setValue(calendar.get(Calendar.HOUR_OF_DAY));
+	}
+	private void buildMinuteSlider(Calendar calendar) {
+		sldMinute.setValue(calendar.get(Calendar.MINUTE));
+	}
+	private void buildSecondSlider(Calendar calendar) {
+		sldSecond.setValue(calendar.get(Calendar.SECOND));
+	}
+	private void buildMillisecondSlider(Calendar calendar) {
+		sldMillisecond.setValue(calendar.get(Calendar.MILLISECOND));
 	}
 	
-	private void buildYearLabel() {
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null)
-			lblYear.setText("" + calendar.get(datePicker.fieldToCalendarField(datePicker.getFieldIndex("y"))));
+	private void buildYearLabel(Calendar calendar) {
+		lblYear.setText("" + calendar.get(Calendar.YEAR));
 	}
 	
-	private void updateFilters() {
-		if (datePicker.getCalendar() != null) {
+	private void updateFilters(Calendar current) {
+		if (current != null) {
 			DateFilter filter = datePicker.filterProperty().isNotNull().getValue() ? datePicker.filterProperty().getValue() : new AcceptAllFilter();
-			// check years
-			Calendar calendar = datePicker.getCalendar();
+			// a button is enabled if anything in the year or month it leads to is accepted
+			Calendar calendar = (Calendar) current.clone();
+			calendar.set(Calendar.DAY_OF_YEAR, 1);
 			calendar.add(Calendar.YEAR, -1);
 			if (btnPreviousYear != null)
-				btnPreviousYear.disableProperty().set(!filter.accept(calendar.getTime()));
+				btnPreviousYear.disableProperty().set(!acceptAny(filter, calendar, calendar.getActualMaximum(Calendar.DAY_OF_YEAR)));
 			calendar.add(Calendar.YEAR, 2);
 			if (btnNextYear != null)
-				btnNextYear.disableProperty().set(!filter.accept(calendar.getTime()));
+				btnNextYear.disableProperty().set(!acceptAny(filter, calendar, calendar.getActualMaximum(Calendar.DAY_OF_YEAR)));
 			// check months
-			calendar = datePicker.getCalendar();
+			calendar = (Calendar) current.clone();
+			calendar.set(Calendar.DAY_OF_MONTH, 1);
 			calendar.add(Calendar.MONTH, -1);
 			if (btnPreviousMonth != null)
-				btnPreviousMonth.disableProperty().set(!filter.accept(calendar.getTime()));
+				btnPreviousMonth.disableProperty().set(!acceptAny(filter, calendar, calendar.getActualMaximum(Calendar.DAY_OF_MONTH)));
 			calendar.add(Calendar.MONTH, 2);
 			if (btnNextMonth != null)
-				btnNextMonth.disableProperty().set(!filter.accept(calendar.getTime()));
+				btnNextMonth.disableProperty().set(!acceptAny(filter, calendar, calendar.getActualMaximum(Calendar.DAY_OF_MONTH)));
 		}
 	}
 	
-	private void buildMonthLabel() {
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null)
-			lblMonth.setText(calendar.getDisplayName(datePicker.fieldToCalendarField(datePicker.getFieldIndex("M")), Calendar.LONG, datePicker.localeProperty().getValue()));			
+	/**
+	 * The filter calls of the picker are recorded, the fallback that accepts everything is not
+	 */
+	private boolean acceptAny(DateFilter filter, Calendar calendar, int days) {
+		if (filter instanceof AcceptAllFilter)
+			return filter.acceptAny(calendar, days);
+		DatePickerMetrics metrics = datePicker.getRecordingMetrics();
+		long start = metrics.start();
+		boolean accepted = filter.acceptAny(calendar, days);
+		metrics.stop(DatePickerMetrics.FILTER_CALLS, start);
+		return accepted;
 	}
 	
-	private void buildDayGrid() {
-		dayGrid.getChildren().clear();
+	private void buildMonthLabel(Calendar calendar) {
+		lblMonth.setText(calendar.getDisplayName(Calendar.MONTH, Calendar.LONG, datePicker.localeProperty().getValue()));			
+	}
+	
+	private void buildDayGrid(Calendar calendar) {
+		if (calendar == null) {
+			for (Label label : lblWeekdays)
+				label.setVisible(false);
+			for (Button button : btnDays) {
+				button.setVisible(false);
+				button.setManaged(false);
+			}
+			gridMonth = -1;
+			return;
+		}
+		DateFilter filter = datePicker.filterProperty().getValue();
+		Locale locale = datePicker.localeProperty().getValue();
+		int year = calendar.get(Calendar.YEAR);
+		int month = calendar.get(Calendar.MONTH);
+		int day = calendar.get(Calendar.DAY_OF_MONTH);
+		int firstDayOfWeek = calendar.getFirstDayOfWeek();
 		
-		Calendar calendar = datePicker.getCalendar();
-		if (calendar != null) {
-			// for each day, create an entry in the grid
-			// the entries for the titles may be created multiple times but this is okay
-			Calendar copy = (Calendar) calendar.clone();
-			for (int i = 1; i <= calendar.getActualMaximum(Calendar.DAY_OF_MONTH); i++) {
-				copy.set(Calendar.DAY_OF_MONTH, i);
-				// get the column it belongs to
-				int column = copy.get(Calendar.DAY_OF_WEEK);
-				if (calendar.getFirstDayOfWeek() > 1)
-					column -= (calendar.getFirstDayOfWeek() - 1);
-				if (column <= 0)
-					column = 8 - column;
-				// so far it was 1-based, grid is 0-based
-				column--;
-				// 1-based again but this time it's ok because the first row is taken up by display names
-				int row = copy.get(Calendar.WEEK_OF_MONTH);
-				// set the displayname
-				dayGrid.add(new Label(copy.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.SHORT, datePicker.localeProperty().getValue())), column, 0);
-				// set the actual day
-				Button btnDay = new Button((copy.get(Calendar.DAY_OF_MONTH) < 10 ? "0" : "") + copy.get(Calendar.DAY_OF_MONTH));
-				btnDay.disableProperty().setValue(datePicker.filterProperty().isNotNull().getValue() && !datePicker.filterProperty().getValue().accept(copy.getTime()));
-				if (copy.get(Calendar.DAY_OF_MONTH) == calendar.get(Calendar.DAY_OF_MONTH))
-					btnDay.getStyleClass().add("nabu-date-picker-day-selected");
-				btnDay.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
-					@Override
-					public void handle(MouseEvent event) {
-						Button btnThis = (Button) event.getSource();
-						int day = new Integer(btnThis.getText());
-						Calendar calendar = datePicker.getCalendar();
-						calendar.set(Calendar.DAY_OF_MONTH, day);
-						datePicker.setCalendar(calendar);
-					}
-				});
-				dayGrid.add(btnDay, column, row);
+		boolean sameMonth = gridMonth == month && gridYear == year && gridFirstDayOfWeek == firstDayOfWeek && calendar.getTimeZone().equals(gridTimezone);
+		// only the time has changed, without a filter there is nothing to update
+		if (sameMonth && gridDay == day && filter == null && gridFilter == null && locale == gridLocale)
+			return;
+		
+		DatePickerMetrics metrics = datePicker.getRecordingMetrics();
+		long start = metrics.start();
+		
+		if (locale != gridLocale || firstDayOfWeek != gridFirstDayOfWeek || gridMonth < 0) {
+			String [] weekdays = DateFormatSymbols.getInstance(locale == null ? Locale.getDefault() : locale).getShortWeekdays();
+			for (int column = 0; column < 7; column++) {
+				lblWeekdays[column].setText(weekdays[((firstDayOfWeek - 1 + column) % 7) + 1]);
+				lblWeekdays[column].setVisible(true);
 			}
 		}
+		
+		Calendar copy = (Calendar) calendar.clone();
+		copy.set(Calendar.DAY_OF_MONTH, 1);
+		// the column of the first day
+		int offset = (copy.get(Calendar.DAY_OF_WEEK) - firstDayOfWeek + 7) % 7;
+		int maximum = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+		// a single query for the whole month
+		long filterStart = metrics.start();
+		long accepted = filter == null ? 0 : filter.acceptDays(copy, maximum);
+		if (filter != null)
+			metrics.stop(DatePickerMetrics.FILTER_CALLS, filterStart);
+		// days that an asynchronous filter has not answered yet
+		long pending = filter instanceof CachedDateFilter ? ((CachedDateFilter) filter).pendingDays(copy, maximum) : 0;
+		for (int i = 0; i < btnDays.length; i++) {
+			Button btnDay = btnDays[i];
+			int cellDay = i - offset + 1;
+			boolean visible = cellDay >= 1 && cellDay <= maximum;
+			if (!sameMonth) {
+				btnDay.setVisible(visible);
+				// unmanaged cells don't take up space, this way an empty last week is not shown
+				btnDay.setManaged(visible);
+				if (visible) {
+					btnDay.setText(DAYS[cellDay]);
+					btnDay.setUserData(cellDay);
+				}
+			}
+			if (visible) {
+				if (filter != null)
+					btnDay.setDisable((accepted & (1L << (cellDay - 1))) == 0);
+				else if (gridFilter != null || !sameMonth)
+					btnDay.setDisable(false);
+				boolean isPending = (pending & (1L << (cellDay - 1))) != 0;
+				if (isPending != btnDay.getStyleClass().contains("nabu-date-picker-day-pending")) {
+					if (isPending)
+						btnDay.getStyleClass().add("nabu-date-picker-day-pending");
+					else
+						btnDay.getStyleClass().remove("nabu-date-picker-day-pending");
+				}
+				boolean selected = cellDay == day;
+				if (selected != btnDay.getStyleClass().contains("nabu-date-picker-day-selected")) {
+					if (selected)
+						btnDay.getStyleClass().add("nabu-date-picker-day-selected");
+					else
+						btnDay.getStyleClass().remove("nabu-date-picker-day-selected");
+				}
+			}
+		}
+		gridYear = year;
+		gridMonth = month;
+		gridDay = day;
+		gridFirstDayOfWeek = firstDayOfWeek;
+		gridLocale = locale;
+		gridTimezone = calendar.getTimeZone();
+		gridFilter = filter;
+		metrics.stop(DatePickerMetrics.DAY_GRID_BUILDS, start);
 	}
 	
 	private static class AcceptAllFilter implements DateFilter {
@@ -400,5 +629,9 @@ public class PopupCalendar {
 		public boolean accept(Date date) {
 			return true;
 		}
+		@Override
+		public boolean acceptAny(Calendar start, int days) {
+			return days > 0;
+		}
 	}
 }
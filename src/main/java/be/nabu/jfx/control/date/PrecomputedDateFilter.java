@@ -0,0 +1,274 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.WeakListener;
+
+/**
+ * Evaluates an expensive filter for whole months on a background executor and keeps the results as bitmaps
+ * The months are keyed by year and month in the given timezone and each day is evaluated at its start, so the wrapped filter should decide per day
+ * A month that has not been computed yet is computed on the calling thread when its days are queried
+ * {@link #acceptAny(Calendar, int)} never blocks, it schedules the missing months and listeners are notified once they are known
+ * The wrapped filter must be thread-safe and should not change, use {@link #clear()} if it does
+ */
+public class PrecomputedDateFilter implements PrefetchingDateFilter, Observable {
+
+	private static final int DEFAULT_SIZE = 64;
+
+	private DateFilter filter;
+
+	private TimeZone timezone;
+
+	private Executor executor;
+
+	/**
+	 * The thread on which listeners are notified
+	 */
+	private Executor notifier;
+
+	/**
+	 * The bitmaps keyed by year * 12 + month
+	 */
+	private Map<Integer, Long> months;
+
+	private Set<Integer> scheduled = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Incremented by every clear, months that were computed for an older generation are discarded
+	 */
+	private long generation;
+
+	/**
+	 * Months that land in quick succession lead to a single notification
+	 */
+	private AtomicBoolean notifying = new AtomicBoolean();
+
+	private List<InvalidationListener> listeners = new ArrayList<InvalidationListener>();
+
+	public PrecomputedDateFilter(DateFilter filter, TimeZone timezone) {
+		this(filter, timezone, ForkJoinPool.commonPool(), DEFAULT_SIZE);
+	}
+
+	public PrecomputedDateFilter(DateFilter filter, TimeZone timezone, Executor executor, int size) {
+		this(filter, timezone, executor, size, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				Platform.runLater(command);
+			}
+		});
+	}
+
+	public PrecomputedDateFilter(DateFilter filter, TimeZone timezone, Executor executor, final int size, Executor notifier) {
+		this.filter = filter;
+		this.timezone = timezone;
+		this.executor = executor;
+		this.notifier = notifier;
+		this.months = new LinkedHashMap<Integer, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	@Override
+	public boolean accept(Date date) {
+		return filter.accept(date);
+	}
+
+	/**
+	 * Only spans that cover exactly one month in the timezone of this filter are cached, anything else is passed on to the filter
+	 */
+	@Override
+	public long acceptDays(Calendar start, int days) {
+		if (isMonth(start, days))
+			return getMonth(getKey(start));
+		return filter.acceptDays(start, days);
+	}
+
+	/**
+	 * Only the months that are ready are used, the others are scheduled and assumed to have accepted days until they are known
+	 * This keeps the popup from computing the adjacent months and years on the javafx thread, it is notified when they are ready
+	 */
+	@Override
+	public boolean acceptAny(Calendar start, int days) {
+		if (!timezone.equals(start.getTimeZone()))
+			return filter.acceptAny(start, days);
+		Calendar calendar = (Calendar) start.clone();
+		boolean unknown = false;
+		while (days > 0) {
+			int day = calendar.get(Calendar.DAY_OF_MONTH);
+			int remaining = calendar.getActualMaximum(Calendar.DAY_OF_MONTH) - day + 1;
+			int span = Math.min(days, remaining);
+			Integer key = getKey(calendar);
+			Long accepted;
+			synchronized(months) {
+				accepted = months.get(key);
+			}
+			// the bits of the days in the span
+			long mask = (span == 64 ? -1L : (1L << span) - 1) << (day - 1);
+			if (accepted == null) {
+				schedule(key);
+				unknown = true;
+			}
+			else if ((accepted & mask) != 0)
+				return true;
+			calendar.add(Calendar.DATE, span);
+			days -= span;
+		}
+		return unknown;
+	}
+
+	@Override
+	public void prefetch(Calendar month) {
+		schedule(getKey(month));
+	}
+
+	/**
+	 * Removes all the bitmaps, this is necessary if the filter changes
+	 */
+	public void clear() {
+		synchronized(months) {
+			months.clear();
+			generation++;
+		}
+		scheduled.clear();
+		notifyListeners();
+	}
+
+	public DateFilter getFilter() {
+		return filter;
+	}
+
+	public TimeZone getTimezone() {
+		return timezone;
+	}
+
+	private void schedule(final Integer key) {
+		final long requested;
+		synchronized(months) {
+			if (months.containsKey(key))
+				return;
+			requested = generation;
+		}
+		if (scheduled.add(key)) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						compute(key, requested);
+					}
+					finally {
+						scheduled.remove(key);
+					}
+					notifyListeners();
+				}
+			});
+		}
+	}
+
+	private boolean isMonth(Calendar start, int days) {
+		return start.get(Calendar.DAY_OF_MONTH) == 1 && days == start.getActualMaximum(Calendar.DAY_OF_MONTH) && timezone.equals(start.getTimeZone());
+	}
+
+	private Integer getKey(Calendar calendar) {
+		return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+	}
+
+	private long getMonth(Integer key) {
+		Long accepted;
+		long requested;
+		synchronized(months) {
+			accepted = months.get(key);
+			requested = generation;
+		}
+		// not computed (yet), the answer is needed now so it is computed here rather than waiting for the executor
+		return accepted == null ? compute(key, requested) : accepted;
+	}
+
+	private long compute(Integer key, long requested) {
+		Calendar start = Calendar.getInstance(timezone);
+		start.clear();
+		start.set(key / 12, key % 12, 1);
+		long accepted = filter.acceptDays(start, start.getActualMaximum(Calendar.DAY_OF_MONTH));
+		synchronized(months) {
+			// the cache was cleared while the month was being computed
+			if (requested == generation)
+				months.put(key, accepted);
+		}
+		return accepted;
+	}
+
+	private void notifyListeners() {
+		if (notifying.compareAndSet(false, true)) {
+			notifier.execute(new Runnable() {
+				@Override
+				public void run() {
+					notifying.set(false);
+					purgeListeners();
+					for (InvalidationListener listener : new ArrayList<InvalidationListener>(listeners))
+						listener.invalidated(PrecomputedDateFilter.this);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Drops the weak listeners of pickers that have been garbage collected
+	 */
+	private void purgeListeners() {
+		Iterator<InvalidationListener> iterator = listeners.iterator();
+		while (iterator.hasNext()) {
+			InvalidationListener listener = iterator.next();
+			if (listener instanceof WeakListener && ((WeakListener) listener).wasGarbageCollected())
+				iterator.remove();
+		}
+	}
+
+	/**
+	 * Listeners are added and notified on the javafx thread (or the thread of the notifier)
+	 */
+	@Override
+	public void addListener(InvalidationListener listener) {
+		purgeListeners();
+		listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(InvalidationListener listener) {
+		listeners.remove(listener);
+	}
+}
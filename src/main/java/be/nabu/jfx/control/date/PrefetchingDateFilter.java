@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+
+/**
+ * A filter that benefits from knowing in advance which months will be shown
+ * The popup calls this for the months adjacent to the one that is visible
+ */
+public interface PrefetchingDateFilter extends DateFilter {
+	
+	/**
+	 * Prepares the month of the given date, this must not block
+	 * The days of the month will be queried at the time of day of the given calendar
+	 */
+	public void prefetch(Calendar month);
+}
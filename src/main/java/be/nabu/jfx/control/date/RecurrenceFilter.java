@@ -0,0 +1,573 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Accepts the occurrences of a recurrence rule in the iCalendar (RFC 5545) RRULE syntax, e.g. "FREQ=MONTHLY;BYDAY=2TU;BYHOUR=9,10,11"
+ * The rule is compiled once into bit masks, all lookups are done with epoch day arithmetic without creating calendars
+ *
+ * The supported parts are FREQ (DAILY, WEEKLY, MONTHLY, YEARLY), INTERVAL, BYMONTH, BYMONTHDAY, BYDAY (with ordinals for monthly and yearly rules), BYHOUR, UNTIL and WKST
+ * An occurrence is a whole day (or a whole hour if BYHOUR is used) in the given timezone, UNTIL is inclusive and only its date is used
+ */
+public class RecurrenceFilter implements TimeSensitiveFilter {
+
+	private static final long DAY = 24 * 60 * 60 * 1000, HOUR = 60 * 60 * 1000;
+
+	/**
+	 * The amount of days in the gregorian cycle of 400 years, if nothing matches within a cycle nothing ever will
+	 */
+	private static final int CYCLE = 146097;
+
+	private static final String [] DAYS = new String [] { "SU", "MO", "TU", "WE", "TH", "FR", "SA" };
+
+	public static final int DAILY = 0, WEEKLY = 1, MONTHLY = 2, YEARLY = 3;
+
+	private String rule;
+
+	private TimeZone timezone;
+
+	private int frequency = -1, interval = 1, weekStart = 1;
+
+	/**
+	 * Bit (1 << month) with month 1-12, 0 if any month is allowed
+	 */
+	private int months;
+
+	/**
+	 * Bit (1 << day) for the positive and the negative (counted from the end of the month) days of the month
+	 */
+	private long monthDays, lastMonthDays;
+
+	/**
+	 * Bit (1 << weekday) with sunday as 0 for the weekdays without ordinal
+	 */
+	private int weekdays;
+
+	/**
+	 * The weekdays with an ordinal, e.g. 2TU is stored as weekday 2 and ordinal 2
+	 */
+	private int [] ordinalWeekdays = new int[0], ordinals = new int[0];
+
+	/**
+	 * Bit (1 << hour) for the allowed hours
+	 */
+	private int hours = 0xFFFFFF;
+
+	private long startDay, untilDay = Long.MAX_VALUE;
+
+	private int startYear, startMonth, startDayOfMonth, startWeekday;
+
+	public RecurrenceFilter(String rule, Date start, TimeZone timezone) {
+		this.rule = rule;
+		this.timezone = timezone;
+		this.startDay = toEpochDay(start.getTime());
+		int [] civil = toCivil(startDay);
+		this.startYear = civil[0];
+		this.startMonth = civil[1];
+		this.startDayOfMonth = civil[2];
+		this.startWeekday = getWeekday(startDay);
+		boolean ordinal = false;
+		String value = rule.startsWith("RRULE:") ? rule.substring("RRULE:".length()) : rule;
+		for (String part : value.split(";")) {
+			if (part.trim().isEmpty())
+				continue;
+			int index = part.indexOf('=');
+			if (index < 0)
+				throw new IllegalArgumentException("Invalid part in the rule " + rule + ": " + part);
+			String name = part.substring(0, index).trim().toUpperCase();
+			String [] values = part.substring(index + 1).trim().toUpperCase().split(",");
+			if (name.equals("FREQ")) {
+				if (values[0].equals("DAILY"))
+					frequency = DAILY;
+				else if (values[0].equals("WEEKLY"))
+					frequency = WEEKLY;
+				else if (values[0].equals("MONTHLY"))
+					frequency = MONTHLY;
+				else if (values[0].equals("YEARLY"))
+					frequency = YEARLY;
+				else
+					throw new IllegalArgumentException("The frequency " + values[0] + " is not supported");
+			}
+			else if (name.equals("INTERVAL")) {
+				interval = Integer.parseInt(values[0]);
+				if (interval < 1)
+					throw new IllegalArgumentException("The interval must be positive: " + interval);
+			}
+			else if (name.equals("BYMONTH")) {
+				for (String month : values)
+					months |= 1 << check(Integer.parseInt(month), 1, 12, name);
+			}
+			else if (name.equals("BYMONTHDAY")) {
+				for (String day : values) {
+					int parsed = Integer.parseInt(day);
+					if (parsed < 0)
+						lastMonthDays |= 1L << check(-parsed, 1, 31, name);
+					else
+						monthDays |= 1L << check(parsed, 1, 31, name);
+				}
+			}
+			else if (name.equals("BYDAY")) {
+				List<int[]> withOrdinal = new ArrayList<int[]>();
+				for (String day : values) {
+					int weekday = getWeekday(day.substring(day.length() - 2));
+					if (day.length() > 2) {
+						int number = Integer.parseInt(day.substring(0, day.length() - 2).replace("+", ""));
+						check(Math.abs(number), 1, 53, name);
+						withOrdinal.add(new int [] { weekday, number });
+						ordinal = true;
+					}
+					else
+						weekdays |= 1 << weekday;
+				}
+				ordinalWeekdays = new int[withOrdinal.size()];
+				ordinals = new int[withOrdinal.size()];
+				for (int i = 0; i < withOrdinal.size(); i++) {
+					ordinalWeekdays[i] = withOrdinal.get(i)[0];
+					ordinals[i] = withOrdinal.get(i)[1];
+				}
+			}
+			else if (name.equals("BYHOUR")) {
+				hours = 0;
+				for (String hour : values)
+					hours |= 1 << check(Integer.parseInt(hour), 0, 23, name);
+			}
+			else if (name.equals("WKST"))
+				weekStart = getWeekday(values[0]);
+			else if (name.equals("UNTIL")) {
+				if (values[0].length() < 8)
+					throw new IllegalArgumentException("Invalid until date: " + values[0]);
+				untilDay = toEpochDay(Integer.parseInt(values[0].substring(0, 4)), Integer.parseInt(values[0].substring(4, 6)), Integer.parseInt(values[0].substring(6, 8)));
+			}
+			else
+				throw new IllegalArgumentException("The rule part " + name + " is not supported");
+		}
+		if (frequency < 0)
+			throw new IllegalArgumentException("The rule " + rule + " has no frequency");
+		if (ordinal && frequency != MONTHLY && frequency != YEARLY)
+			throw new IllegalArgumentException("Weekdays with an ordinal are only supported for monthly and yearly rules");
+	}
+
+	@Override
+	public boolean accept(Date date) {
+		return accept(date.getTime());
+	}
+
+	public boolean accept(long epochMillis) {
+		long local = epochMillis + timezone.getOffset(epochMillis);
+		int hour = (int) (Math.floorMod(local, DAY) / HOUR);
+		return (hours & (1 << hour)) != 0 && matches(Math.floorDiv(local, DAY));
+	}
+
+	/**
+	 * The days are checked with epoch day arithmetic, no calendar is created per day
+	 */
+	@Override
+	public long acceptDays(Calendar start, int days) {
+		if (days < 0 || days > 64)
+			throw new IllegalArgumentException("Can only check up to 64 days at once: " + days);
+		long local = start.getTimeInMillis() + timezone.getOffset(start.getTimeInMillis());
+		if ((hours & (1 << (int) (Math.floorMod(local, DAY) / HOUR))) == 0)
+			return 0;
+		long day = Math.floorDiv(local, DAY);
+		long accepted = 0;
+		// reused for all the days
+		int [] civil = new int[3];
+		for (int i = 0; i < days; i++) {
+			if (day + i >= startDay && day + i <= untilDay && matches(day + i, toCivil(day + i, civil)))
+				accepted |= 1L << i;
+		}
+		return accepted;
+	}
+
+	@Override
+	public boolean acceptAny(Calendar start, int days) {
+		long local = start.getTimeInMillis() + timezone.getOffset(start.getTimeInMillis());
+		if (days <= 0 || (hours & (1 << (int) (Math.floorMod(local, DAY) / HOUR))) == 0)
+			return false;
+		long day = Math.floorDiv(local, DAY);
+		long next = nextDay(day);
+		return next != Long.MIN_VALUE && next < day + days;
+	}
+
+	/**
+	 * The first accepted moment at or after the given date, null if there is none
+	 */
+	public Date next(Date date) {
+		long local = date.getTime() + timezone.getOffset(date.getTime());
+		long day = Math.floorDiv(local, DAY);
+		int hour = (int) (Math.floorMod(local, DAY) / HOUR);
+		if (matches(day)) {
+			if ((hours & (1 << hour)) != 0)
+				return date;
+			// a later hour on the same day
+			int later = hours & (-1 << (hour + 1));
+			if (later != 0)
+				return toDate(day, Integer.numberOfTrailingZeros(later), false);
+		}
+		day = nextDay(day + 1);
+		return day == Long.MIN_VALUE ? null : toDate(day, Integer.numberOfTrailingZeros(hours), false);
+	}
+
+	/**
+	 * The last accepted moment at or before the given date, null if there is none
+	 */
+	public Date previous(Date date) {
+		long local = date.getTime() + timezone.getOffset(date.getTime());
+		long day = Math.floorDiv(local, DAY);
+		int hour = (int) (Math.floorMod(local, DAY) / HOUR);
+		if (matches(day)) {
+			if ((hours & (1 << hour)) != 0)
+				return date;
+			// an earlier hour on the same day
+			int earlier = hours & ((1 << hour) - 1);
+			if (earlier != 0)
+				return toDate(day, 31 - Integer.numberOfLeadingZeros(earlier), true);
+		}
+		day = previousDay(day - 1);
+		return day == Long.MIN_VALUE ? null : toDate(day, 31 - Integer.numberOfLeadingZeros(hours), true);
+	}
+
+	/**
+	 * The first matching epoch day at or after the given day, Long.MIN_VALUE if there is none
+	 */
+	public long nextDay(long day) {
+		day = Math.max(day, startDay);
+		long limit = Math.min(untilDay, day + CYCLE);
+		int [] civil = new int[3];
+		while (day <= limit) {
+			toCivil(day, civil);
+			int dayOfMonth = civil[2], length = getMonthLength(civil[0], civil[1]);
+			// skip whole months and periods that can not match
+			if (months != 0 && (months & (1 << civil[1])) == 0)
+				day += length - dayOfMonth + 1;
+			else if (!matchesInterval(day, civil))
+				day = getNextPeriod(day, civil);
+			else {
+				// only the days that can match are checked, from the given day to the end of the month
+				long candidates = getCandidates(civil[0], civil[1], length) & (-1L << dayOfMonth);
+				while (candidates != 0) {
+					civil[2] = Long.numberOfTrailingZeros(candidates);
+					long candidate = day + civil[2] - dayOfMonth;
+					if (candidate > limit)
+						return Long.MIN_VALUE;
+					if (matches(candidate, civil))
+						return candidate;
+					candidates &= candidates - 1;
+				}
+				day += length - dayOfMonth + 1;
+			}
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/**
+	 * The last matching epoch day at or before the given day, Long.MIN_VALUE if there is none
+	 */
+	public long previousDay(long day) {
+		day = Math.min(day, untilDay);
+		long limit = Math.max(startDay, day - CYCLE);
+		int [] civil = new int[3];
+		while (day >= limit) {
+			toCivil(day, civil);
+			int dayOfMonth = civil[2];
+			if (months != 0 && (months & (1 << civil[1])) == 0)
+				day -= dayOfMonth;
+			else if (!matchesInterval(day, civil))
+				day = getPreviousPeriod(day, civil);
+			else {
+				// only the days that can match are checked, from the given day back to the start of the month
+				long candidates = getCandidates(civil[0], civil[1], getMonthLength(civil[0], civil[1])) & ((2L << dayOfMonth) - 1);
+				while (candidates != 0) {
+					civil[2] = 63 - Long.numberOfLeadingZeros(candidates);
+					long candidate = day - (dayOfMonth - civil[2]);
+					if (candidate < limit)
+						return Long.MIN_VALUE;
+					if (matches(candidate, civil))
+						return candidate;
+					candidates &= ~Long.highestOneBit(candidates);
+				}
+				day -= dayOfMonth;
+			}
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/**
+	 * Only rules with BYHOUR accept part of a day
+	 */
+	@Override
+	public boolean isTimeSensitive() {
+		return hours != 0xFFFFFF;
+	}
+
+	public String getRule() {
+		return rule;
+	}
+
+	public TimeZone getTimezone() {
+		return timezone;
+	}
+
+	private boolean matches(long day) {
+		return day >= startDay && day <= untilDay && matches(day, toCivil(day, new int[3]));
+	}
+
+	private boolean matches(long day, int [] civil) {
+		if (day < startDay || day > untilDay)
+			return false;
+		int year = civil[0], month = civil[1], dayOfMonth = civil[2];
+		if (months != 0 && (months & (1 << month)) == 0)
+			return false;
+		if (!matchesInterval(day, civil))
+			return false;
+		int weekday = getWeekday(day);
+		int length = getMonthLength(year, month);
+		boolean hasMonthDays = monthDays != 0 || lastMonthDays != 0;
+		boolean hasWeekdays = weekdays != 0 || ordinals.length > 0;
+		if (hasMonthDays && (monthDays & (1L << dayOfMonth)) == 0 && (lastMonthDays & (1L << (length - dayOfMonth + 1))) == 0)
+			return false;
+		if (hasWeekdays && (weekdays & (1 << weekday)) == 0 && !matchesOrdinal(day, civil, weekday, length))
+			return false;
+		// without explicit parts, the rule repeats the start
+		if (!hasMonthDays && !hasWeekdays) {
+			switch(frequency) {
+				case WEEKLY: return weekday == startWeekday;
+				case MONTHLY: return dayOfMonth == startDayOfMonth;
+				case YEARLY: return dayOfMonth == startDayOfMonth && (months != 0 || month == startMonth);
+			}
+		}
+		return true;
+	}
+
+	private boolean matchesOrdinal(long day, int [] civil, int weekday, int length) {
+		for (int i = 0; i < ordinals.length; i++) {
+			if (ordinalWeekdays[i] != weekday)
+				continue;
+			int ordinal;
+			// yearly rules without months count within the year
+			if (frequency == YEARLY && months == 0) {
+				long first = toEpochDay(civil[0], 1, 1);
+				int dayOfYear = (int) (day - first) + 1;
+				int yearLength = (int) (toEpochDay(civil[0] + 1, 1, 1) - first);
+				ordinal = ordinals[i] > 0 ? (dayOfYear - 1) / 7 + 1 : -((yearLength - dayOfYear) / 7 + 1);
+			}
+			else
+				ordinal = ordinals[i] > 0 ? (civil[2] - 1) / 7 + 1 : -((length - civil[2]) / 7 + 1);
+			if (ordinal == ordinals[i])
+				return true;
+		}
+		return false;
+	}
+
+	private boolean matchesInterval(long day, int [] civil) {
+		if (interval == 1)
+			return true;
+		switch(frequency) {
+			case DAILY: return (day - startDay) % interval == 0;
+			case WEEKLY: return Math.floorDiv(getWeekStart(day) - getWeekStart(startDay), 7) % interval == 0;
+			case MONTHLY: return ((civil[0] * 12 + civil[1]) - (startYear * 12 + startMonth)) % interval == 0;
+			default: return (civil[0] - startYear) % interval == 0;
+		}
+	}
+
+	/**
+	 * The first day of the next period that matches the interval
+	 */
+	private long getNextPeriod(long day, int [] civil) {
+		switch(frequency) {
+			case DAILY: return day + interval - Math.floorMod(day - startDay, interval);
+			case WEEKLY:
+				long weekStart = getWeekStart(day);
+				return weekStart + 7 * (interval - Math.floorMod(Math.floorDiv(weekStart - getWeekStart(startDay), 7), interval));
+			case MONTHLY:
+				int month = civil[0] * 12 + civil[1] - 1;
+				month += interval - Math.floorMod(month - (startYear * 12 + startMonth - 1), interval);
+				return toEpochDay(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1);
+			default: return toEpochDay(civil[0] + interval - Math.floorMod(civil[0] - startYear, interval), 1, 1);
+		}
+	}
+
+	/**
+	 * The last day of the previous period that matches the interval
+	 */
+	private long getPreviousPeriod(long day, int [] civil) {
+		switch(frequency) {
+			case DAILY: return day - Math.floorMod(day - startDay, interval);
+			case WEEKLY:
+				long weekStart = getWeekStart(day);
+				return weekStart - 7 * Math.floorMod(Math.floorDiv(weekStart - getWeekStart(startDay), 7), interval) + 6;
+			case MONTHLY:
+				int month = civil[0] * 12 + civil[1] - 1;
+				month -= Math.floorMod(month - (startYear * 12 + startMonth - 1), interval) - 1;
+				return toEpochDay(Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1) - 1;
+			default: return toEpochDay(civil[0] - Math.floorMod(civil[0] - startYear, interval) + 1, 1, 1) - 1;
+		}
+	}
+
+	/**
+	 * Bit (1 << day) for the days of the month that can match the month days and weekdays of the rule, the other parts are checked per day
+	 */
+	private long getCandidates(int year, int month, int length) {
+		long candidates = (2L << length) - 2;
+		int first = getWeekday(toEpochDay(year, month, 1));
+		boolean hasMonthDays = monthDays != 0 || lastMonthDays != 0;
+		boolean hasWeekdays = weekdays != 0 || ordinals.length > 0;
+		if (!hasMonthDays && !hasWeekdays) {
+			switch(frequency) {
+				case WEEKLY: return getWeekdayDays(first, startWeekday, length);
+				case MONTHLY:
+				case YEARLY: return startDayOfMonth <= length ? 1L << startDayOfMonth : 0;
+				default: return candidates;
+			}
+		}
+		if (hasMonthDays) {
+			long days = monthDays;
+			for (long last = lastMonthDays; last != 0; last &= last - 1) {
+				int fromEnd = Long.numberOfTrailingZeros(last);
+				if (fromEnd <= length)
+					days |= 1L << (length - fromEnd + 1);
+			}
+			candidates &= days;
+		}
+		if (hasWeekdays) {
+			long days = 0;
+			for (int weekday = 0; weekday < 7; weekday++) {
+				if ((weekdays & (1 << weekday)) != 0)
+					days |= getWeekdayDays(first, weekday, length);
+			}
+			for (int i = 0; i < ordinals.length; i++) {
+				// yearly rules without months count within the year, any occurrence in the month can be the one
+				if (frequency == YEARLY && months == 0)
+					days |= getWeekdayDays(first, ordinalWeekdays[i], length);
+				else {
+					int firstDay = 1 + Math.floorMod(ordinalWeekdays[i] - first, 7);
+					int day = ordinals[i] > 0 ? firstDay + 7 * (ordinals[i] - 1) : firstDay + 7 * ((length - firstDay) / 7) + 7 * (ordinals[i] + 1);
+					if (day >= 1 && day <= length)
+						days |= 1L << day;
+				}
+			}
+			candidates &= days;
+		}
+		return candidates;
+	}
+
+	/**
+	 * Bit (1 << day) for the days of the month that fall on the given weekday
+	 */
+	private static long getWeekdayDays(int first, int weekday, int length) {
+		long days = 0;
+		for (int day = 1 + Math.floorMod(weekday - first, 7); day <= length; day += 7)
+			days |= 1L << day;
+		return days;
+	}
+
+	private long getWeekStart(long day) {
+		return day - Math.floorMod(getWeekday(day) - weekStart, 7);
+	}
+
+	private long toEpochDay(long epochMillis) {
+		return Math.floorDiv(epochMillis + timezone.getOffset(epochMillis), DAY);
+	}
+
+	/**
+	 * The moment in the given timezone, either at the start or at the very end of the hour
+	 */
+	private Date toDate(long day, int hour, boolean end) {
+		int [] civil = toCivil(day);
+		Calendar calendar = Calendar.getInstance(timezone);
+		calendar.clear();
+		calendar.set(civil[0], civil[1] - 1, civil[2], hour, 0);
+		if (end)
+			calendar.add(Calendar.MILLISECOND, (int) HOUR - 1);
+		return calendar.getTime();
+	}
+
+	/**
+	 * Sunday is 0
+	 */
+	private static int getWeekday(long day) {
+		// the first of january 1970 was a thursday
+		return (int) Math.floorMod(day + 4, 7);
+	}
+
+	private static int getWeekday(String day) {
+		for (int i = 0; i < DAYS.length; i++) {
+			if (DAYS[i].equals(day))
+				return i;
+		}
+		throw new IllegalArgumentException("Unknown weekday: " + day);
+	}
+
+	private static int check(int value, int minimum, int maximum, String name) {
+		if (value < minimum || value > maximum)
+			throw new IllegalArgumentException("The value " + value + " is not valid for " + name);
+		return value;
+	}
+
+	private static int getMonthLength(int year, int month) {
+		return (int) (toEpochDay(month == 12 ? year + 1 : year, month == 12 ? 1 : month + 1, 1) - toEpochDay(year, month, 1));
+	}
+
+	/**
+	 * The days since 1970-01-01 for the given date in the proleptic gregorian calendar, the month is 1-based
+	 */
+	static long toEpochDay(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * CYCLE + dayOfEra - 719468;
+	}
+
+	/**
+	 * The year, month (1-based) and day of the month of the given epoch day
+	 */
+	static int [] toCivil(long epochDay) {
+		return toCivil(epochDay, new int[3]);
+	}
+
+	/**
+	 * Fills in the year, month and day of the month in the given array and returns it
+	 */
+	static int [] toCivil(long epochDay, int [] civil) {
+		long z = epochDay + 719468;
+		long era = Math.floorDiv(z, CYCLE);
+		long dayOfEra = z - era * CYCLE;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shifted = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * shifted + 2) / 5 + 1);
+		int month = (int) (shifted < 10 ? shifted + 3 : shifted - 9);
+		civil[0] = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+		civil[1] = month;
+		civil[2] = day;
+		return civil;
+	}
+
+	@Override
+	public String toString() {
+		return rule;
+	}
+}
@@ -0,0 +1,30 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+/**
+ * A filter whose answer for a day can depend on the time of day
+ * The popup only checks the days again when the time changes if the filter says so, other filters are assumed to decide per day
+ */
+public interface TimeSensitiveFilter extends DateFilter {
+	
+	/**
+	 * Whether the answer for a day can change with the time of day
+	 */
+	public boolean isTimeSensitive();
+}
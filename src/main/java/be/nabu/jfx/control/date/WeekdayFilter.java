@@ -0,0 +1,97 @@
+/*
+* Copyright (C) 2013 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.date;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Accepts the dates that fall on one of the given days of the week in the given timezone
+ * The day of the week is derived from the epoch day so no calendar is needed per lookup
+ */
+public class WeekdayFilter implements DateFilter {
+
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	private TimeZone timezone;
+
+	/**
+	 * Bit (1 << day) is set for every accepted day, using the values of {@link Calendar#DAY_OF_WEEK}
+	 */
+	private int mask;
+
+	/**
+	 * The days are those of {@link Calendar#DAY_OF_WEEK}, e.g. Calendar.SATURDAY and Calendar.SUNDAY for weekends
+	 */
+	public WeekdayFilter(TimeZone timezone, int...days) {
+		this.timezone = timezone;
+		for (int day : days) {
+			if (day < Calendar.SUNDAY || day > Calendar.SATURDAY)
+				throw new IllegalArgumentException("Not a valid day of the week: " + day);
+			mask |= 1 << day;
+		}
+	}
+
+	@Override
+	public boolean accept(Date date) {
+		return accept(date.getTime());
+	}
+
+	public boolean accept(long epochMillis) {
+		long epochDay = Math.floorDiv(epochMillis + timezone.getOffset(epochMillis), DAY);
+		// the first of january 1970 was a thursday
+		int day = (int) Math.floorMod(epochDay + 4, 7) + Calendar.SUNDAY;
+		return (mask & (1 << day)) != 0;
+	}
+
+	/**
+	 * Accepts the days that are not accepted by this filter
+	 */
+	public WeekdayFilter complement() {
+		WeekdayFilter complement = new WeekdayFilter(timezone);
+		complement.mask = ~mask & getAllDays();
+		return complement;
+	}
+
+	/**
+	 * Combines the days of both filters, this is only possible if they use the same timezone
+	 */
+	WeekdayFilter combine(WeekdayFilter other, boolean intersect) {
+		if (!timezone.hasSameRules(other.timezone))
+			return null;
+		WeekdayFilter combined = new WeekdayFilter(timezone);
+		combined.mask = intersect ? mask & other.mask : mask | other.mask;
+		return combined;
+	}
+
+	public TimeZone getTimezone() {
+		return timezone;
+	}
+
+	public boolean accepts(int day) {
+		return (mask & (1 << day)) != 0;
+	}
+
+	private static int getAllDays() {
+		int mask = 0;
+		for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++)
+			mask |= 1 << day;
+		return mask;
+	}
+}
@@ -17,9 +17,9 @@
 
 package be.nabu.jfx.control.date;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.Calendar;
 import java.util.Date;
+import java.util.GregorianCalendar;
 
 import javafx.application.Application;
 import javafx.scene.Scene;
@@ -37,18 +37,8 @@ public class Test extends Application {
 		final DatePicker picker = new DatePicker();
 //		picker.setHideTimeControls(true);
 		picker.formatProperty().setValue("yyyy/MM/dd HH:mm:ss.SSS");
-		picker.filterProperty().setValue(new DateFilter() {
-			@Override
-			public boolean accept(Date date) {
-				SimpleDateFormat parser = new SimpleDateFormat("yyyy-MM-dd");
-				try {
-					return date.after(parser.parse("2010-07-13"));
-				}
-				catch (ParseException e) {
-					return false;
-				}
-			}
-		});
+		// only dates strictly after the start of the 13th of july 2010
+		picker.filterProperty().setValue(IntervalFilter.from(new Date(new GregorianCalendar(2010, Calendar.JULY, 13).getTimeInMillis() + 1)));
 		vbox.getChildren().add(picker);
 		vbox.getChildren().add(new Button("test"));
 		root.setCenter(vbox);